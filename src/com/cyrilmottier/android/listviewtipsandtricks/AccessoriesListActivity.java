@@ -17,6 +17,8 @@ package com.cyrilmottier.android.listviewtipsandtricks;
 
 import android.app.ListActivity;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
@@ -29,7 +31,8 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import static com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses.CHEESES;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.LoadCheesesTask;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.OnCheesesLoadedListener;
 
 /**
  * Demo how to add clickable accessories to itemviews. The itemview layout is
@@ -38,12 +41,14 @@ import static com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses.CHEESE
  * 
  * @author Cyril Mottier
  */
-public class AccessoriesListActivity extends ListActivity {
+public class AccessoriesListActivity extends ListActivity implements OnCheesesLoadedListener {
 
     private static final String STAR_STATES = "listviewtipsandtricks:star_states";
 
+    private String[] mCheeses;
     private AccessoriesAdapter mAdapter;
     private boolean[] mStarStates;
+    private LoadCheesesTask mLoadCheesesTask;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -54,23 +59,56 @@ public class AccessoriesListActivity extends ListActivity {
         // change, etc.)
         if (savedInstanceState != null) {
             mStarStates = savedInstanceState.getBooleanArray(STAR_STATES);
-        } else {
-            mStarStates = new boolean[CHEESES.length];
         }
-        
+
+        mLoadCheesesTask = StressMode.loadCheeses(getIntent(), this);
+    }
+
+    public void onCheesesLoaded(String[] cheeses) {
+        mLoadCheesesTask = null;
+        mCheeses = cheeses;
+        if (mStarStates == null) {
+            mStarStates = new boolean[mCheeses.length];
+        }
+
         mAdapter = new AccessoriesAdapter();
         setListAdapter(mAdapter);
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mLoadCheesesTask != null) {
+            mLoadCheesesTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putBooleanArray(STAR_STATES, mStarStates);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        StressMode.onCreateOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        StressMode.onPrepareOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        return StressMode.onOptionsItemSelected(this, item) || super.onOptionsItemSelected(item);
+    }
+
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
-        showMessage(getString(R.string.you_want_info_about_format, CHEESES[position]));
+        showMessage(getString(R.string.you_want_info_about_format, mCheeses[position]));
     }
 
     /**
@@ -93,12 +131,12 @@ public class AccessoriesListActivity extends ListActivity {
 
         @Override
         public int getCount() {
-            return CHEESES.length;
+            return mCheeses.length;
         }
 
         @Override
         public String getItem(int position) {
-            return CHEESES[position];
+            return mCheeses[position];
         }
 
         @Override
@@ -138,7 +176,7 @@ public class AccessoriesListActivity extends ListActivity {
             holder.star.setChecked(mStarStates[position]);
             holder.star.setOnCheckedChangeListener(mStarCheckedChanceChangeListener);
 
-            holder.content.setText(CHEESES[position]);
+            holder.content.setText(mCheeses[position]);
 
             return convertView;
         }
@@ -158,7 +196,7 @@ public class AccessoriesListActivity extends ListActivity {
         public void onClick(View v) {
             final int position = getListView().getPositionForView(v);
             if (position != ListView.INVALID_POSITION) {
-                showMessage(getString(R.string.you_want_to_buy_format, CHEESES[position]));
+                showMessage(getString(R.string.you_want_to_buy_format, mCheeses[position]));
             }
         }
     };
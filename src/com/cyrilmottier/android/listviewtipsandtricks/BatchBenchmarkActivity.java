@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import java.util.ArrayList;
+
+import android.app.Activity;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.provider.MemoryProvider;
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler;
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler.BatchListener;
+
+/**
+ * Compares separate inserts with batched inserts against the
+ * {@link MemoryProvider}, for 1,000 and 10,000 operations. Separate inserts
+ * are started one by one on the worker thread and each of them notifies a
+ * change. Batched inserts are applied in chunks with
+ * {@link NotifyingAsyncQueryHandler#startBatch(int, Object, String, ArrayList, int, Uri)}
+ * and notify a single change. The time to apply all operations and the
+ * number of change notifications received are reported for each run.
+ * <p>
+ * This Activity requires API level 5 and is not listed with the other
+ * samples. It may be started with:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.BatchBenchmarkActivity
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class BatchBenchmarkActivity extends Activity implements BatchListener {
+
+    private static final String LOG_TAG = "BatchBenchmarkActivity";
+
+    private static final int[] OPERATION_COUNTS = {
+            1000, 10000
+    };
+
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Time given to pending change notifications to be received before
+     * reporting a run
+     */
+    private static final int SETTLE_DELAY = 500;
+
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_BATCH = 2;
+
+    private final Handler mHandler = new Handler();
+
+    private TextView mResultView;
+    private NotifyingAsyncQueryHandler mQueryHandler;
+    private ChangeCounter mChangeCounter;
+
+    /**
+     * Runs alternate separate and batched inserts: run / 2 is the index of
+     * the operation count
+     */
+    private int mRun;
+    private String mRunName;
+    private int mOperationCount;
+    private int mPendingCount;
+    private long mStartTime;
+    private long mTime;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        mResultView = new TextView(this);
+        mResultView.setText(R.string.benchmark_running);
+        setContentView(mResultView);
+
+        mQueryHandler = new NotifyingAsyncQueryHandler(getContentResolver(), this) {
+            @Override
+            protected void onInsertComplete(int token, Object cookie, Uri uri) {
+                if (--mPendingCount == 0) {
+                    onRunComplete();
+                }
+            }
+        };
+
+        mChangeCounter = new ChangeCounter(mHandler);
+        getContentResolver().registerContentObserver(MemoryProvider.CONTENT_URI, true, mChangeCounter);
+
+        startRun();
+    }
+
+    @Override
+    protected void onDestroy() {
+        getContentResolver().unregisterContentObserver(mChangeCounter);
+        mHandler.removeCallbacksAndMessages(null);
+        mQueryHandler.clearQueryListener();
+        mQueryHandler.cancelOperation(TOKEN_INSERT);
+        mQueryHandler.cancelOperation(TOKEN_BATCH);
+        super.onDestroy();
+    }
+
+    private void startRun() {
+        final boolean batched = (mRun % 2) == 1;
+        mOperationCount = OPERATION_COUNTS[mRun / 2];
+        mRunName = getString(batched ? R.string.benchmark_batched : R.string.benchmark_separate);
+
+        getContentResolver().delete(NotifyingAsyncQueryHandler.withoutNotification(MemoryProvider.CONTENT_URI), null, null);
+        mChangeCounter.mCount = 0;
+        mStartTime = SystemClock.uptimeMillis();
+
+        final ContentValues values = new ContentValues();
+        values.put(MemoryProvider.STARRED, 1);
+
+        if (batched) {
+            final Uri uri = NotifyingAsyncQueryHandler.withoutNotification(MemoryProvider.CONTENT_URI);
+            final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(mOperationCount);
+            for (int i = 0; i < mOperationCount; i++) {
+                values.put(MemoryProvider.NAME, "Item " + i);
+                operations.add(ContentProviderOperation.newInsert(uri).withValues(values).build());
+            }
+            mQueryHandler.startBatch(TOKEN_BATCH, null, MemoryProvider.AUTHORITY, operations, BATCH_SIZE, MemoryProvider.CONTENT_URI);
+        } else {
+            mPendingCount = mOperationCount;
+            for (int i = 0; i < mOperationCount; i++) {
+                // Values are not copied until the insert is executed
+                final ContentValues insertValues = new ContentValues(values);
+                insertValues.put(MemoryProvider.NAME, "Item " + i);
+                mQueryHandler.startInsert(TOKEN_INSERT, null, MemoryProvider.CONTENT_URI, insertValues);
+            }
+        }
+    }
+
+    private void onRunComplete() {
+        mTime = SystemClock.uptimeMillis() - mStartTime;
+        mHandler.postDelayed(mReportRun, SETTLE_DELAY);
+    }
+
+    private final Runnable mReportRun = new Runnable() {
+        public void run() {
+            final String result = getString(R.string.benchmark_batch_result_format, mRunName, mOperationCount, mTime,
+                    mOperationCount * 1000L / Math.max(mTime, 1), mChangeCounter.mCount);
+            Log.i(LOG_TAG, result);
+            mResultView.append("\n" + result);
+
+            if (++mRun < OPERATION_COUNTS.length * 2) {
+                startRun();
+            }
+        }
+    };
+
+    @Override
+    public void onQueryComplete(int token, Object cookie, Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void onBatchProgress(int token, Object cookie, int appliedCount, int totalCount) {
+        // Only the total time is measured
+    }
+
+    @Override
+    public void onBatchComplete(int token, Object cookie, int appliedCount, boolean successful) {
+        if (!successful) {
+            Log.w(LOG_TAG, "Batch failed after " + appliedCount + " operations");
+        }
+        onRunComplete();
+    }
+
+    /**
+     * Counts the change notifications received on the UI thread.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class ChangeCounter extends ContentObserver {
+
+        public int mCount;
+
+        public ChangeCounter(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import android.app.ListActivity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.widget.DiffingArrayAdapter;
+
+/**
+ * Measures {@link DiffingArrayAdapter} on a 10,000 rows list receiving small
+ * edits (a few insertions, deletions and replacements around the visible
+ * rows). For each round, the time spent diffing in the background and the
+ * number of rows actually rebound are logged. Without diffing, every visible
+ * row would be rebound: the number of visible rows is logged as well.
+ * <p>
+ * This Activity is not listed with the other samples. It may be started with:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.DiffBenchmarkActivity
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class DiffBenchmarkActivity extends ListActivity {
+
+    private static final String LOG_TAG = "DiffBenchmarkActivity";
+
+    private static final int ROW_COUNT = 10000;
+    private static final int ROUND_COUNT = 20;
+    private static final int EDITS_PER_ROUND = 5;
+
+    /**
+     * Edits happen within this number of rows around the first visible row
+     */
+    private static final int EDIT_RANGE = 40;
+
+    private static final long SEED = 42;
+
+    private final Random mRandom = new Random(SEED);
+
+    private BenchmarkAdapter mAdapter;
+    private int mRound;
+    private int mNextRow = ROW_COUNT;
+    private int mBindCountBefore;
+
+    private long mTotalDiffTime;
+    private int mTotalBindCount;
+    private int mTotalVisibleCount;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        final String[] rows = new String[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = "Row " + i;
+        }
+        mAdapter = new BenchmarkAdapter(rows);
+        setListAdapter(mAdapter);
+        getListView().setSelection(ROW_COUNT / 2);
+
+        // Let the list lay out its rows first
+        getListView().post(mStartRound);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mAdapter.cancelChangeData();
+        getListView().removeCallbacks(mStartRound);
+        getListView().removeCallbacks(mEndRound);
+        super.onDestroy();
+    }
+
+    private final Runnable mStartRound = new Runnable() {
+        public void run() {
+            final ArrayList<String> rows = new ArrayList<String>(Arrays.asList(mAdapter.getData()));
+            final int first = getListView().getFirstVisiblePosition();
+            for (int i = 0; i < EDITS_PER_ROUND; i++) {
+                final int position = Math.min(rows.size() - 1, Math.max(0, first - EDIT_RANGE / 2) + mRandom.nextInt(EDIT_RANGE));
+                switch (mRandom.nextInt(3)) {
+                    case 0:
+                        rows.add(position, "Row " + mNextRow++);
+                        break;
+                    case 1:
+                        rows.remove(position);
+                        break;
+                    default:
+                        rows.set(position, "Row " + mNextRow++);
+                        break;
+                }
+            }
+
+            mBindCountBefore = mAdapter.getBindCount();
+            mAdapter.changeData(rows.toArray(new String[rows.size()]), getListView());
+        }
+    };
+
+    /**
+     * Runs once the list has been laid out with the new data
+     */
+    private final Runnable mEndRound = new Runnable() {
+        public void run() {
+            final int bindCount = mAdapter.getBindCount() - mBindCountBefore;
+            final int visibleCount = getListView().getChildCount();
+            mTotalBindCount += bindCount;
+            mTotalVisibleCount += visibleCount;
+            Log.i(LOG_TAG, "Round " + mRound + ": diffed in " + mAdapter.mDiffTime / 1000 + " \u00b5s, " + bindCount
+                    + " rows rebound out of " + visibleCount + " visible");
+
+            if (++mRound < ROUND_COUNT) {
+                getListView().post(mStartRound);
+            } else {
+                Log.i(LOG_TAG, ROUND_COUNT + " rounds of " + EDITS_PER_ROUND + " edits on " + ROW_COUNT + " rows: " + mTotalDiffTime / 1000
+                        / ROUND_COUNT + " \u00b5s per diff, " + mTotalBindCount + " rows rebound instead of " + mTotalVisibleCount);
+            }
+        }
+    };
+
+    /**
+     * Displays the rows and ends the round once the data has been applied.
+     * 
+     * @author Cyril Mottier
+     */
+    private class BenchmarkAdapter extends DiffingArrayAdapter<String> {
+
+        public long mDiffTime;
+
+        public BenchmarkAdapter(String[] data) {
+            super(data);
+        }
+
+        @Override
+        protected View newView(int position, ViewGroup parent) {
+            return getLayoutInflater().inflate(R.layout.text_item, parent, false);
+        }
+
+        @Override
+        protected void bindView(View view, int position, String row) {
+            ((TextView) view).setText(row);
+        }
+
+        @Override
+        protected void onDataChanged(long diffTime, int changedCount) {
+            mDiffTime = diffTime;
+            mTotalDiffTime += diffTime;
+            getListView().post(mEndRound);
+        }
+    }
+}
@@ -15,14 +15,17 @@
  */
 package com.cyrilmottier.android.listviewtipsandtricks;
 
-import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.LoadCheesesTask;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.OnCheesesLoadedListener;
+import com.cyrilmottier.android.listviewtipsandtricks.widget.DiffingArrayAdapter;
 
 import android.app.ListActivity;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
@@ -32,68 +35,89 @@ import android.widget.TextView;
  * 
  * @author Cyril Mottier
  */
-public class EmptyListActivity extends ListActivity {
+public class EmptyListActivity extends ListActivity implements OnCheesesLoadedListener {
 
     private static final String EMPTY[] = {};
-    private static final String CHEESES[] = Cheeses.CHEESES;
 
+    private String[] mCheeses;
     private CheeseAdapter mAdapter;
+    private LoadCheesesTask mLoadCheesesTask;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.empty_list);
 
-        mAdapter = new CheeseAdapter(CHEESES);
+        mLoadCheesesTask = StressMode.loadCheeses(getIntent(), this);
+    }
+
+    public void onCheesesLoaded(String[] cheeses) {
+        mLoadCheesesTask = null;
+        mCheeses = cheeses;
+        mAdapter = new CheeseAdapter(mCheeses);
         setListAdapter(mAdapter);
     }
 
-    public void onSetEmpty(View v) {
-        mAdapter.changeData(EMPTY);
+    @Override
+    protected void onDestroy() {
+        if (mLoadCheesesTask != null) {
+            mLoadCheesesTask.cancel(false);
+        }
+        if (mAdapter != null) {
+            mAdapter.cancelChangeData();
+        }
+        super.onDestroy();
     }
 
-    public void onSetData(View v) {
-        mAdapter.changeData(CHEESES);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        StressMode.onCreateOptionsMenu(this, menu);
+        return true;
     }
 
-    private class CheeseAdapter extends BaseAdapter {
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        StressMode.onPrepareOptionsMenu(this, menu);
+        return true;
+    }
 
-        private String[] mData;
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        return StressMode.onOptionsItemSelected(this, item) || super.onOptionsItemSelected(item);
+    }
 
-        public CheeseAdapter(String[] data) {
-            mData = data;
+    public void onSetEmpty(View v) {
+        if (mAdapter != null) {
+            mAdapter.changeData(EMPTY, getListView());
         }
+    }
 
-        public void changeData(String[] data) {
-            mData = data;
-            notifyDataSetChanged();
+    public void onSetData(View v) {
+        if (mAdapter != null) {
+            mAdapter.changeData(mCheeses, getListView());
         }
+    }
 
-        @Override
-        public int getCount() {
-            return mData.length;
-        }
+    /**
+     * Data changes are diffed in the background: rows displaying a cheese
+     * that is still there are neither moved nor rebound.
+     * 
+     * @author Cyril Mottier
+     */
+    private class CheeseAdapter extends DiffingArrayAdapter<String> {
 
-        @Override
-        public String getItem(int position) {
-            return mData[position];
+        public CheeseAdapter(String[] data) {
+            super(data);
         }
 
         @Override
-        public long getItemId(int position) {
-            return position;
+        protected View newView(int position, ViewGroup parent) {
+            return getLayoutInflater().inflate(R.layout.text_item, parent, false);
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-
-            if (convertView == null) {
-                convertView = getLayoutInflater().inflate(R.layout.text_item, parent, false);
-            }
-
-            ((TextView) convertView).setText(getItem(position));
-
-            return convertView;
+        protected void bindView(View view, int position, String cheese) {
+            ((TextView) view).setText(cheese);
         }
     }
 }
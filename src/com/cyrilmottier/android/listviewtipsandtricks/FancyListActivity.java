@@ -15,13 +15,26 @@
  */
 package com.cyrilmottier.android.listviewtipsandtricks;
 
-import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import java.util.BitSet;
+
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.LoadCheesesTask;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.OnCheesesLoadedListener;
+import com.cyrilmottier.android.listviewtipsandtricks.util.MultiPatternMatcher;
 
 import android.app.ListActivity;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -33,27 +46,105 @@ import android.widget.TextView;
  * 
  * @author Cyril Mottier
  */
-public class FancyListActivity extends ListActivity {
+public class FancyListActivity extends ListActivity implements OnCheesesLoadedListener {
+
+    private static final String LOG_TAG = "FancyListActivity";
+
+    /**
+     * Set to true to log the number of drawable loads per scrolled screen and
+     * the time it takes to switch selector methods.
+     */
+    private static final boolean DEBUG = false;
 
     private static final int METHOD_DRAW_SELECTOR_ON_TOP = 1;
     private static final int METHOD_USE_SELECTOR_AS_BACKGROUND = 2;
 
-    private static final String[] SPECIAL_CHEESE_TAGS = new String[] {
+    static final String[] SPECIAL_CHEESE_TAGS = new String[] {
             "'", "-", "y"
     };
 
+    private static final MultiPatternMatcher SPECIAL_CHEESE_MATCHER = new MultiPatternMatcher(SPECIAL_CHEESE_TAGS);
+
+    /**
+     * Data sets with at least that number of cheeses are analyzed in the
+     * background
+     */
+    private static final int BACKGROUND_ANALYSIS_THRESHOLD = 10000;
+
     private FancyAdapter mFancyAdapter;
+    private LoadCheesesTask mLoadCheesesTask;
     private int mMethod;
 
+    /**
+     * The constant states of the item backgrounds, keyed by selector method
+     * and view type (see {@link #getBackgroundKey(int, int)}). Backgrounds of
+     * new item views share them instead of being loaded from the resources.
+     */
+    private final SparseArray<Drawable.ConstantState> mBackgroundStates = new SparseArray<Drawable.ConstantState>();
+
+    /*
+     * Metrics: number of item views bound and number of backgrounds set and
+     * loaded from the resources since the last report
+     */
+    private int mBindCount;
+    private int mBackgroundSetCount;
+    private int mDrawableLoadCount;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.fancy_list);
 
-        mFancyAdapter = new FancyAdapter(Cheeses.CHEESES);
-        setListAdapter(mFancyAdapter);
+        mLoadCheesesTask = StressMode.loadCheeses(getIntent(), this);
 
         changeMethod(METHOD_DRAW_SELECTOR_ON_TOP);
+
+        if (DEBUG) {
+            getListView().setOnScrollListener(new OnScrollListener() {
+                public void onScrollStateChanged(AbsListView view, int scrollState) {
+                    if (scrollState == SCROLL_STATE_IDLE) {
+                        reportDrawableLoads();
+                    }
+                }
+
+                public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                }
+            });
+        }
+    }
+
+    public void onCheesesLoaded(String[] cheeses) {
+        mLoadCheesesTask = null;
+        mFancyAdapter = new FancyAdapter(cheeses);
+        setListAdapter(mFancyAdapter);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mLoadCheesesTask != null) {
+            mLoadCheesesTask.cancel(false);
+        }
+        if (mFancyAdapter != null) {
+            mFancyAdapter.cancelAnalysis();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        StressMode.onCreateOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        StressMode.onPrepareOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        return StressMode.onOptionsItemSelected(this, item) || super.onOptionsItemSelected(item);
     }
 
     public void onDrawSelectorOnTop(View v) {
@@ -73,6 +164,8 @@ public class FancyListActivity extends ListActivity {
      */
     private void changeMethod(int method) {
         if (mMethod != method) {
+            final long start = SystemClock.uptimeMillis();
+
             switch (method) {
                 case METHOD_DRAW_SELECTOR_ON_TOP:
                     mMethod = METHOD_DRAW_SELECTOR_ON_TOP;
@@ -91,18 +184,106 @@ public class FancyListActivity extends ListActivity {
                     break;
             }
 
-            // HACK Cyril: Most of the time, the following line is not
-            // necessary. The purpose of this line is to force the ListView to
-            // re-layout and re-draw all of its children. Indeed, when changing
-            // selector properties of the ListView 'on the fly', problems may
-            // occur (bad itemview states, invisible list selector, etc.).
-            // Usually, you'll change the list selector properties at
-            // creation time (or event better in the XML definition of your
-            // layout) and won't touch this afterwards.
-            getListView().invalidateViews();
+            // HACK Cyril: Most of the time, the following is not necessary.
+            // When changing selector properties of the ListView 'on the fly',
+            // problems may occur (bad itemview states, invisible list
+            // selector, etc.). Usually, you'll change the list selector
+            // properties at creation time (or event better in the XML
+            // definition of your layout) and won't touch this afterwards.
+            // Rather than discarding and rebinding all children with
+            // invalidateViews(), only the backgrounds of the visible children
+            // are replaced, in place. Setting a background applies the current
+            // drawable state of the view. Views sitting in the recycle bin are
+            // updated when they are reused (see FancyAdapter#getView()).
+            rethemeVisibleViews();
+            getListView().invalidate();
+
+            if (DEBUG) {
+                final long switchTime = SystemClock.uptimeMillis() - start;
+                // Runs right after the next traversal, once the new frame has
+                // been drawn
+                getListView().post(new Runnable() {
+                    public void run() {
+                        Log.d(LOG_TAG, "Selector method switched in " + switchTime + " ms, next frame drawn after "
+                                + (SystemClock.uptimeMillis() - start) + " ms");
+                    }
+                });
+            }
+        }
+    }
+
+    private void rethemeVisibleViews() {
+        final ListView listView = getListView();
+        final int firstPosition = listView.getFirstVisiblePosition();
+        final int childCount = listView.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final View child = listView.getChildAt(i);
+            final FancyViewHolder holder = (FancyViewHolder) child.getTag();
+            if (holder != null && holder.method != mMethod) {
+                child.setBackgroundDrawable(newBackground(mMethod, mFancyAdapter.getItemViewType(firstPosition + i)));
+                holder.method = mMethod;
+                mBackgroundSetCount++;
+            }
         }
     }
 
+    /**
+     * Returns a new background for an item view of the given type. The
+     * background resource is only loaded the first time, later backgrounds
+     * share its constant state.
+     */
+    private Drawable newBackground(int method, int viewType) {
+        final int key = getBackgroundKey(method, viewType);
+        final Drawable.ConstantState state = mBackgroundStates.get(key);
+        if (state != null) {
+            return state.newDrawable();
+        }
+
+        mDrawableLoadCount++;
+        final Drawable background = getResources().getDrawable(getBackgroundResource(method, viewType));
+        if (background.getConstantState() != null) {
+            mBackgroundStates.put(key, background.getConstantState());
+        }
+        return background;
+    }
+
+    private static int getBackgroundKey(int method, int viewType) {
+        return method * FancyAdapter.VIEW_TYPE_COUNT + viewType;
+    }
+
+    private static int getBackgroundResource(int method, int viewType) {
+        final boolean special = viewType == FancyAdapter.VIEW_TYPE_SPECIAL;
+        switch (method) {
+            case METHOD_USE_SELECTOR_AS_BACKGROUND:
+                // The two following resource identifiers refer to
+                // StateListDrawables.
+                return special ? R.drawable.list_item_selector_special : R.drawable.list_item_selector_normal;
+            case METHOD_DRAW_SELECTOR_ON_TOP:
+            default:
+                return special ? R.drawable.list_item_background_special : R.drawable.list_item_background_normal;
+        }
+    }
+
+    private void reportDrawableLoads() {
+        final int screenSize = Math.max(1, getListView().getChildCount());
+        final float screenCount = Math.max(1f, (float) mBindCount / screenSize);
+        Log.d(LOG_TAG, mBindCount + " binds (" + screenCount + " screens): " + mBackgroundSetCount / screenCount + " backgrounds set and "
+                + mDrawableLoadCount / screenCount + " drawables loaded per screen");
+        mBindCount = 0;
+        mBackgroundSetCount = 0;
+        mDrawableLoadCount = 0;
+    }
+
+    /**
+     * Remembers the selector method the background of an item view has been
+     * set for.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class FancyViewHolder {
+        public int method;
+    }
+
     /**
      * A pretty stupid Adapter managing a list of cheeses... Some of those cheeses
      * are very special when processed by a very advanced algorithm ... :-).
@@ -111,10 +292,48 @@ public class FancyListActivity extends ListActivity {
      */
     private class FancyAdapter extends BaseAdapter {
 
+        /*
+         * Normal and special cheeses are recycled separately: a recycled view
+         * already has the right background.
+         */
+        public static final int VIEW_TYPE_NORMAL = 0;
+        public static final int VIEW_TYPE_SPECIAL = 1;
+        public static final int VIEW_TYPE_COUNT = 2;
+
         private String[] mData;
 
+        /**
+         * Bit i is set if the cheese at position i is special. null while the
+         * data set is being analyzed.
+         */
+        private BitSet mSpecialFlags;
+        private SpecialFlagsTask mSpecialFlagsTask;
+
         public FancyAdapter(String[] data) {
             mData = data;
+            analyze();
+        }
+
+        /**
+         * Compute the special flags of the whole data set at once. Large data
+         * sets are analyzed in the background, small ones straight away.
+         */
+        private void analyze() {
+            cancelAnalysis();
+            if (mData.length < BACKGROUND_ANALYSIS_THRESHOLD) {
+                mSpecialFlags = SPECIAL_CHEESE_MATCHER.matchAll(mData);
+            } else {
+                mSpecialFlags = null;
+                mSpecialFlagsTask = new SpecialFlagsTask();
+                mSpecialFlagsTask.execute(mData);
+            }
+        }
+
+        public void cancelAnalysis() {
+            if (mSpecialFlagsTask != null) {
+                mSpecialFlagsTask.cancel(false);
+                mSpecialFlagsTask = null;
+            }
         }
 
         @Override
@@ -132,6 +351,16 @@ public class FancyListActivity extends ListActivity {
             return position;
         }
 
+        @Override
+        public int getViewTypeCount() {
+            return VIEW_TYPE_COUNT;
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            return isSpecial(position) ? VIEW_TYPE_SPECIAL : VIEW_TYPE_NORMAL;
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
 
@@ -146,6 +375,7 @@ public class FancyListActivity extends ListActivity {
                 // a ColorStateList if you want your text color to change
                 // depending on the current state of the itemview.
                 result.setTextColor(Color.BLACK);
+                result.setTag(new FancyViewHolder());
             } else {
                 result = (TextView) convertView;
             }
@@ -154,49 +384,61 @@ public class FancyListActivity extends ListActivity {
 
             result.setText(cheese);
 
-            int normalId;
-            int specialId;
-
-            switch (mMethod) {
-                case METHOD_USE_SELECTOR_AS_BACKGROUND:
-                    // The two following resource identifiers refer to
-                    // StateListDrawables.
-                    normalId = R.drawable.list_item_selector_normal;
-                    specialId = R.drawable.list_item_selector_special;
-                    break;
-                case METHOD_DRAW_SELECTOR_ON_TOP:
-                default:
-                    normalId = R.drawable.list_item_background_normal;
-                    specialId = R.drawable.list_item_background_special;
-                    break;
+            // The background only depends on the view type and on the
+            // selector method. It is thus set once per view rather than at
+            // each bind: setting it again would reload the drawable and
+            // invalidate the view for nothing. Views are only updated when
+            // the selector method changes.
+            final FancyViewHolder holder = (FancyViewHolder) result.getTag();
+            if (holder.method != mMethod) {
+                result.setBackgroundDrawable(newBackground(mMethod, getItemViewType(position)));
+                holder.method = mMethod;
+                mBackgroundSetCount++;
             }
-
-            // Change the background of this itemview depending on whether the
-            // underlying cheese is special or not.
-            result.setBackgroundResource(isSpecial(cheese) ? specialId : normalId);
+            mBindCount++;
 
             return result;
         }
 
         /**
          * Stupid method considering if a cheese is special or not. The
-         * algorithm is not the important thing in this tip ^^.
+         * algorithm is not the important thing in this tip ^^. Flags are
+         * computed once per data set so this is a simple lookup. While the
+         * data set is being analyzed, the cheese is matched on the fly.
          * 
-         * @param cheese The cheese to analyze
+         * @param position The position of the cheese to analyze
          * @return true if that cheese is important else it returns false.
          */
-        private boolean isSpecial(String cheese) {
-            if (cheese != null) {
-                for (String tag : SPECIAL_CHEESE_TAGS) {
-                    if (cheese.contains(tag)) {
-                        return true;
-                    }
-                }
+        private boolean isSpecial(int position) {
+            if (mSpecialFlags != null) {
+                return mSpecialFlags.get(position);
             }
-
-            return false;
+            final String cheese = getItem(position);
+            return cheese != null && SPECIAL_CHEESE_MATCHER.matches(cheese);
         }
 
+        /**
+         * Computes the special flags of a large data set in the background.
+         * 
+         * @author Cyril Mottier
+         */
+        private class SpecialFlagsTask extends AsyncTask<String[], Void, BitSet> {
+
+            @Override
+            protected BitSet doInBackground(String[]... params) {
+                return SPECIAL_CHEESE_MATCHER.matchAll(params[0]);
+            }
+
+            @Override
+            protected void onPostExecute(BitSet specialFlags) {
+                if (mSpecialFlagsTask != this) {
+                    return;
+                }
+                mSpecialFlagsTask = null;
+                mSpecialFlags = specialFlags;
+                notifyDataSetChanged();
+            }
+        }
     }
 
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import java.util.Random;
+
+import android.app.Activity;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.util.PrefixIndex;
+import com.cyrilmottier.android.listviewtipsandtricks.util.TrigramIndex;
+
+/**
+ * Measures the filtering of {@link FilterListActivity} on 1,000,000 entries
+ * (the cheeses, repeated). Random cheese names are typed character by
+ * character and each keystroke is looked up in the {@link PrefixIndex}, both
+ * from scratch and refined from the previous keystroke. The scan of all
+ * entries an {@link ArrayAdapter} does on each keystroke is measured on a few
+ * keystrokes for comparison.
+ * <p>
+ * The fuzzy mode is measured the same way: the {@link TrigramIndex} build
+ * time and size and the latency of each keystroke, with a typo tolerated.
+ * The trigram index of 1,000,000 entries takes about 19 MB, which doesn't fit
+ * in the heap of an API level 8 device along with the entries: it is
+ * measured on the first 250,000 entries only (about 6 MB).
+ * <p>
+ * This Activity is not listed with the other samples. It may be started with:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.FilterBenchmarkActivity
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class FilterBenchmarkActivity extends Activity {
+
+    private static final String LOG_TAG = "FilterBenchmarkActivity";
+
+    private static final int ENTRY_COUNT = 1000000;
+    private static final int TRIGRAM_ENTRY_COUNT = 250000;
+    private static final int TYPED_NAME_COUNT = 1000;
+
+    /**
+     * Scanning all entries takes about a second: only a few keystrokes are
+     * scanned.
+     */
+    private static final int SCANNED_KEYSTROKE_COUNT = 10;
+
+    private static final int FUZZY_MAX_TYPOS = 1;
+    private static final int FUZZY_RESULT_LIMIT = 100;
+
+    private static final long SEED = 42;
+
+    private TextView mResultView;
+    private BenchmarkTask mBenchmarkTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        mResultView = new TextView(this);
+        mResultView.setText(R.string.benchmark_running);
+        setContentView(mResultView);
+
+        mBenchmarkTask = new BenchmarkTask();
+        mBenchmarkTask.execute();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mBenchmarkTask.cancel(false);
+        super.onDestroy();
+    }
+
+    /**
+     * Runs the benchmark in the background and publishes the results.
+     * 
+     * @author Cyril Mottier
+     */
+    private class BenchmarkTask extends AsyncTask<Void, String, Void> {
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final String[] entries = new String[ENTRY_COUNT];
+            for (int i = 0; i < ENTRY_COUNT; i++) {
+                entries[i] = Cheeses.CHEESES[i % Cheeses.CHEESES.length];
+            }
+
+            final Random random = new Random(SEED);
+            final String[] names = new String[TYPED_NAME_COUNT];
+            int keystrokeCount = 0;
+            for (int i = 0; i < TYPED_NAME_COUNT; i++) {
+                names[i] = Cheeses.CHEESES[random.nextInt(Cheeses.CHEESES.length)];
+                keystrokeCount += names[i].length();
+            }
+
+            runPrefix(entries, names, keystrokeCount);
+            if (!isCancelled()) {
+                runTrigram(entries, names, keystrokeCount);
+            }
+            return null;
+        }
+
+        private void runPrefix(String[] entries, String[] names, int keystrokeCount) {
+            long start = SystemClock.elapsedRealtime();
+            final PrefixIndex index = new PrefixIndex(entries);
+            final long buildTime = SystemClock.elapsedRealtime() - start;
+            publishProgress(getString(R.string.benchmark_index_build_format, ENTRY_COUNT, buildTime));
+
+            // Each keystroke from scratch
+            start = System.nanoTime();
+            for (String name : names) {
+                for (int length = 1; length <= name.length(); length++) {
+                    index.search(name.substring(0, length));
+                }
+            }
+            final long searchTime = System.nanoTime() - start;
+
+            // Each keystroke refined from the previous one
+            start = System.nanoTime();
+            for (String name : names) {
+                PrefixIndex.Result result = null;
+                for (int length = 1; length <= name.length(); length++) {
+                    result = index.refine(result, name.substring(0, length));
+                }
+            }
+            final long refineTime = System.nanoTime() - start;
+
+            if (isCancelled()) {
+                return;
+            }
+
+            // What an ArrayAdapter does: lower case and compare every entry
+            start = System.nanoTime();
+            int scannedCount = 0;
+            for (int i = 0; i < SCANNED_KEYSTROKE_COUNT; i++) {
+                final String prefix = names[i].substring(0, 1 + i % names[i].length()).toLowerCase();
+                int matchCount = 0;
+                for (String entry : entries) {
+                    if (entry.toLowerCase().startsWith(prefix)) {
+                        matchCount++;
+                    }
+                }
+                if (matchCount != index.search(prefix).getCount()) {
+                    Log.e(LOG_TAG, "Mismatch for '" + prefix + "'");
+                }
+                scannedCount++;
+            }
+            final long scanTime = System.nanoTime() - start;
+
+            publishProgress(getString(R.string.benchmark_filter_result_format, keystrokeCount, searchTime / 1000 / keystrokeCount,
+                    refineTime / 1000 / keystrokeCount, scanTime / 1000 / scannedCount));
+        }
+
+        private void runTrigram(String[] entries, String[] names, int keystrokeCount) {
+            final String[] trigramEntries = new String[TRIGRAM_ENTRY_COUNT];
+            System.arraycopy(entries, 0, trigramEntries, 0, TRIGRAM_ENTRY_COUNT);
+
+            long start = SystemClock.elapsedRealtime();
+            final TrigramIndex index = new TrigramIndex(trigramEntries);
+            final long buildTime = SystemClock.elapsedRealtime() - start;
+            publishProgress(getString(R.string.benchmark_trigram_build_format, TRIGRAM_ENTRY_COUNT, buildTime,
+                    index.getSizeInBytes() / 1024));
+
+            long totalTime = 0;
+            long maxTime = 0;
+            for (String name : names) {
+                for (int length = 1; length <= name.length(); length++) {
+                    final CharSequence query = name.subSequence(0, length);
+                    start = System.nanoTime();
+                    index.search(query, FUZZY_MAX_TYPOS, FUZZY_RESULT_LIMIT);
+                    final long time = System.nanoTime() - start;
+                    totalTime += time;
+                    maxTime = Math.max(maxTime, time);
+                }
+            }
+
+            publishProgress(getString(R.string.benchmark_trigram_result_format, keystrokeCount, totalTime / 1000 / keystrokeCount,
+                    maxTime / 1000));
+        }
+
+        @Override
+        protected void onProgressUpdate(String... values) {
+            Log.i(LOG_TAG, values[0]);
+            mResultView.append("\n" + values[0]);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import java.util.ArrayList;
+
+import android.app.ListActivity;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.LoadCheesesTask;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.OnCheesesLoadedListener;
+import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.util.PrefixIndex;
+import com.cyrilmottier.android.listviewtipsandtricks.util.TrigramIndex;
+
+/**
+ * Demo a type-to-filter list that stays fast with large data sets. An
+ * {@link ArrayAdapter} filters by lower-casing and scanning every entry on
+ * each keystroke. Here, a {@link PrefixIndex} is built once in the background
+ * and each keystroke is a couple of binary searches within the result of the
+ * previous keystroke.
+ * <p>
+ * Cheeses are displayed sorted by their lower case name and match when their
+ * name starts with the typed text. In fuzzy mode, a {@link TrigramIndex} is
+ * used instead: cheeses match when their name contains the typed text or
+ * something close to it, best matches first.
+ * 
+ * @author Cyril Mottier
+ */
+public class FilterListActivity extends ListActivity implements OnCheesesLoadedListener {
+
+    /**
+     * Integer extra giving the number of entries of the list. Cheeses are
+     * repeated to reach it. Defaults to the number of cheeses. Ignored in
+     * {@link StressMode}.
+     */
+    public static final String EXTRA_ENTRY_COUNT = "com.cyrilmottier.android.listviewtipsandtricks.extra.ENTRY_COUNT";
+
+    /**
+     * Boolean extra enabling the fuzzy mode: the typed text may appear
+     * anywhere in the names and may contain a typo.
+     */
+    public static final String EXTRA_FUZZY = "com.cyrilmottier.android.listviewtipsandtricks.extra.FUZZY";
+
+    private static final String LOG_TAG = "FilterListActivity";
+
+    /**
+     * Set to true to log the index build time and the lookup times.
+     */
+    private static final boolean DEBUG = false;
+
+    private static final int FUZZY_MAX_TYPOS = 1;
+    private static final int FUZZY_RESULT_LIMIT = 100;
+
+    private boolean mFuzzy;
+    private CheeseFilterAdapter mAdapter;
+    private EditText mFilterText;
+    private IndexTask mIndexTask;
+    private LoadCheesesTask mLoadCheesesTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.filter_list);
+
+        mFuzzy = getIntent().getBooleanExtra(EXTRA_FUZZY, false);
+
+        mFilterText = (EditText) findViewById(R.id.filter);
+        mFilterText.addTextChangedListener(mFilterWatcher);
+
+        if (StressMode.isEnabled(getIntent())) {
+            mLoadCheesesTask = StressMode.loadCheeses(getIntent(), this);
+        } else {
+            final int entryCount = getIntent().getIntExtra(EXTRA_ENTRY_COUNT, Cheeses.CHEESES.length);
+            final String[] entries = new String[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                entries[i] = Cheeses.CHEESES[i % Cheeses.CHEESES.length];
+            }
+            onCheesesLoaded(entries);
+        }
+    }
+
+    public void onCheesesLoaded(String[] cheeses) {
+        mLoadCheesesTask = null;
+        mAdapter = new CheeseFilterAdapter(cheeses);
+        setListAdapter(mAdapter);
+
+        mIndexTask = new IndexTask();
+        mIndexTask.execute(cheeses);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mLoadCheesesTask != null) {
+            mLoadCheesesTask.cancel(false);
+        }
+        if (mIndexTask != null) {
+            mIndexTask.cancel(false);
+        }
+        mFilterText.removeTextChangedListener(mFilterWatcher);
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.filter_list, menu);
+        StressMode.onCreateOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.menu_fuzzy).setChecked(mFuzzy);
+        StressMode.onPrepareOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_fuzzy:
+                // Indexes are built at creation time
+                startActivity(new Intent(getIntent()).putExtra(EXTRA_FUZZY, !mFuzzy));
+                finish();
+                return true;
+
+            default:
+                return StressMode.onOptionsItemSelected(this, item) || super.onOptionsItemSelected(item);
+        }
+    }
+
+    private final TextWatcher mFilterWatcher = new TextWatcher() {
+
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        public void afterTextChanged(Editable s) {
+            // What is typed while loading is applied once indexed
+            if (mAdapter != null) {
+                mAdapter.getFilter().filter(s.toString());
+            }
+        }
+    };
+
+    /**
+     * Builds the index in the background. Until it is built, the list is not
+     * filtered.
+     * 
+     * @author Cyril Mottier
+     */
+    private class IndexTask extends AsyncTask<String[], Void, Void> {
+
+        private PrefixIndex mPrefixIndex;
+        private TrigramIndex mTrigramIndex;
+
+        @Override
+        protected Void doInBackground(String[]... params) {
+            final long start = SystemClock.uptimeMillis();
+            if (mFuzzy) {
+                mTrigramIndex = new TrigramIndex(params[0]);
+            } else {
+                mPrefixIndex = new PrefixIndex(params[0]);
+            }
+            if (DEBUG) {
+                Log.d(LOG_TAG, "Indexed " + params[0].length + " entries in " + (SystemClock.uptimeMillis() - start) + " ms");
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mAdapter.setIndexes(mPrefixIndex, mTrigramIndex);
+            // Apply what has been typed while indexing
+            mAdapter.getFilter().filter(mFilterText.getText().toString());
+        }
+    }
+
+    /**
+     * Displays the cheeses matching the typed text. The whole result is never
+     * copied: rows are read from the index range.
+     * 
+     * @author Cyril Mottier
+     */
+    private class CheeseFilterAdapter extends BaseAdapter implements Filterable {
+
+        private final String[] mEntries;
+        private PrefixIndex mIndex;
+        private PrefixIndex.Result mResult;
+        private TrigramIndex mTrigramIndex;
+        private int[] mMatches;
+        private Filter mFilter;
+
+        public CheeseFilterAdapter(String[] entries) {
+            mEntries = entries;
+        }
+
+        public void setIndexes(PrefixIndex index, TrigramIndex trigramIndex) {
+            mIndex = index;
+            mTrigramIndex = trigramIndex;
+        }
+
+        public int getCount() {
+            if (mMatches != null) {
+                return mMatches.length;
+            }
+            return (mResult != null) ? mResult.getCount() : mEntries.length;
+        }
+
+        public String getItem(int position) {
+            return mEntries[getEntryIndex(position)];
+        }
+
+        public long getItemId(int position) {
+            return getEntryIndex(position);
+        }
+
+        private int getEntryIndex(int position) {
+            if (mMatches != null) {
+                return mMatches[position];
+            }
+            return (mResult != null) ? mResult.getEntryIndex(position) : position;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = getLayoutInflater().inflate(R.layout.text_item, parent, false);
+            }
+            ((TextView) convertView).setText(getItem(position));
+            return convertView;
+        }
+
+        public Filter getFilter() {
+            if (mFilter == null) {
+                mFilter = mFuzzy ? new FuzzyFilter() : new PrefixFilter();
+            }
+            return mFilter;
+        }
+
+        /**
+         * Filters the cheeses with the index. The results of the previous
+         * keystrokes are kept so that typing a character refines the last
+         * result and deleting one goes back to the result it refined.
+         * 
+         * @author Cyril Mottier
+         */
+        private class PrefixFilter extends Filter {
+
+            /**
+             * Results of the previous keystrokes. Each result refines the one
+             * before. Only accessed from the filtering thread.
+             */
+            private final ArrayList<PrefixIndex.Result> mHistory = new ArrayList<PrefixIndex.Result>();
+
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                final PrefixIndex index = mIndex;
+                if (index == null) {
+                    return null;
+                }
+
+                final long start = SystemClock.elapsedRealtime();
+                final String prefix = (constraint != null) ? constraint.toString() : "";
+
+                // Drop the results the new prefix doesn't extend
+                int last = mHistory.size() - 1;
+                while (last >= 0 && !PrefixIndex.startsWith(prefix, mHistory.get(last).getPrefix())) {
+                    mHistory.remove(last--);
+                }
+                final PrefixIndex.Result previous = (last >= 0) ? mHistory.get(last) : null;
+                final PrefixIndex.Result result = index.refine(previous, prefix);
+                if (result != previous) {
+                    mHistory.add(result);
+                }
+
+                if (DEBUG) {
+                    Log.d(LOG_TAG, "'" + prefix + "': " + result.getCount() + " matches in " + (SystemClock.elapsedRealtime() - start)
+                            + " ms");
+                }
+
+                final FilterResults results = new FilterResults();
+                results.values = result;
+                results.count = result.getCount();
+                return results;
+            }
+
+            @Override
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                if (results == null) {
+                    return;
+                }
+                mResult = (PrefixIndex.Result) results.values;
+                notifyDataSetChanged();
+            }
+        }
+
+        /**
+         * Filters the cheeses with the trigram index. An empty text shows all
+         * cheeses.
+         * 
+         * @author Cyril Mottier
+         */
+        private class FuzzyFilter extends Filter {
+
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                final TrigramIndex index = mTrigramIndex;
+                if (index == null) {
+                    return null;
+                }
+
+                final FilterResults results = new FilterResults();
+                if (constraint != null && constraint.length() > 0) {
+                    final long start = SystemClock.elapsedRealtime();
+                    final int[] matches = index.search(constraint, FUZZY_MAX_TYPOS, FUZZY_RESULT_LIMIT);
+                    if (DEBUG) {
+                        Log.d(LOG_TAG, "'" + constraint + "': " + matches.length + " matches in "
+                                + (SystemClock.elapsedRealtime() - start) + " ms");
+                    }
+                    results.values = matches;
+                    results.count = matches.length;
+                }
+                return results;
+            }
+
+            @Override
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                if (results == null) {
+                    return;
+                }
+                mMatches = (int[]) results.values;
+                notifyDataSetChanged();
+            }
+        }
+    }
+}
@@ -15,14 +15,17 @@
  */
 package com.cyrilmottier.android.listviewtipsandtricks;
 
-import static com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses.CHEESES;
 import android.app.ListActivity;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.ListView;
 
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.LoadCheesesTask;
+import com.cyrilmottier.android.listviewtipsandtricks.StressMode.OnCheesesLoadedListener;
 import com.cyrilmottier.android.listviewtipsandtricks.widget.LargeTouchableAreasView;
 import com.cyrilmottier.android.listviewtipsandtricks.widget.LargeTouchableAreasView.OnLargeTouchableAreasListener;
 
@@ -33,27 +36,36 @@ import com.cyrilmottier.android.listviewtipsandtricks.widget.LargeTouchableAreas
  * 
  * @author Cyril Mottier
  */
-public class LargeTouchableAreasListActivity extends ListActivity {
+public class LargeTouchableAreasListActivity extends ListActivity implements OnCheesesLoadedListener {
 
     private static final String STAR_STATES = "listviewtipsandtricks:star_states";
     private static final String SELECTION_STATES = "listviewtipsandtricks:selection_states";
 
+    private String[] mCheeses;
     private boolean[] mStarStates;
     private boolean[] mSelectionStates;
+    private LoadCheesesTask mLoadCheesesTask;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        LargeTouchableAreasAdapter adapter = new LargeTouchableAreasAdapter();
-
         // The following code allows the Activity to restore its state after it
         // has been killed by the system (low memory condition, configuration
         // change, etc.)
         if (savedInstanceState != null) {
             mStarStates = savedInstanceState.getBooleanArray(STAR_STATES);
             mSelectionStates = savedInstanceState.getBooleanArray(SELECTION_STATES);
-        } else {
+        }
+
+        mLoadCheesesTask = StressMode.loadCheeses(getIntent(), this);
+    }
+
+    public void onCheesesLoaded(String[] cheeses) {
+        mLoadCheesesTask = null;
+        mCheeses = cheeses;
+        LargeTouchableAreasAdapter adapter = new LargeTouchableAreasAdapter();
+        if (mStarStates == null) {
             mStarStates = new boolean[adapter.getCount()];
             mSelectionStates = new boolean[adapter.getCount()];
         }
@@ -61,6 +73,14 @@ public class LargeTouchableAreasListActivity extends ListActivity {
         setListAdapter(adapter);
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mLoadCheesesTask != null) {
+            mLoadCheesesTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -68,6 +88,23 @@ public class LargeTouchableAreasListActivity extends ListActivity {
         outState.putBooleanArray(STAR_STATES, mStarStates);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        StressMode.onCreateOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        StressMode.onPrepareOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        return StressMode.onOptionsItemSelected(this, item) || super.onOptionsItemSelected(item);
+    }
+
     /**
      * The Adapter used in the demonstration.
      * 
@@ -77,12 +114,12 @@ public class LargeTouchableAreasListActivity extends ListActivity {
 
         @Override
         public int getCount() {
-            return CHEESES.length;
+            return mCheeses.length;
         }
 
         @Override
         public String getItem(int position) {
-            return CHEESES[position];
+            return mCheeses[position];
         }
 
         @Override
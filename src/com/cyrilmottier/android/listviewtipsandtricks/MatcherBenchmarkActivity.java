@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import android.app.Activity;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.util.MultiPatternMatcher;
+
+/**
+ * Compares the two ways {@link FancyListActivity} may flag special cheeses:
+ * looping over the tags with {@link String#contains(CharSequence)} for each
+ * row and matching all tags at once with a {@link MultiPatternMatcher}. The
+ * data set contains 1,000,000 rows (the cheeses, repeated) and is matched
+ * against the tags of {@link FancyListActivity} and against larger sets of
+ * random tags.
+ * <p>
+ * The naive loop is only run on the first {@link #NAIVE_ROW_COUNT} rows: with
+ * large tag sets, running it on all rows would take minutes. Both methods are
+ * reported in nanoseconds per row.
+ * <p>
+ * This Activity is not listed with the other samples. It may be started with:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.MatcherBenchmarkActivity
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class MatcherBenchmarkActivity extends Activity {
+
+    private static final String LOG_TAG = "MatcherBenchmarkActivity";
+
+    private static final int ROW_COUNT = 1000000;
+    private static final int NAIVE_ROW_COUNT = 100000;
+
+    /**
+     * Sizes of the random tag sets, in addition to the tags of
+     * {@link FancyListActivity}
+     */
+    private static final int[] RANDOM_TAG_COUNTS = {
+            100, 1000
+    };
+
+    private static final int RANDOM_TAG_LENGTH = 4;
+
+    /**
+     * Random tags are generated from a fixed seed so that runs are comparable
+     */
+    private static final long SEED = 42;
+
+    private TextView mResultView;
+    private BenchmarkTask mBenchmarkTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        mResultView = new TextView(this);
+        mResultView.setText(R.string.benchmark_running);
+        setContentView(mResultView);
+
+        mBenchmarkTask = new BenchmarkTask();
+        mBenchmarkTask.execute();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mBenchmarkTask.cancel(false);
+        super.onDestroy();
+    }
+
+    /**
+     * Runs the benchmark in the background and publishes one result per tag
+     * set.
+     * 
+     * @author Cyril Mottier
+     */
+    private class BenchmarkTask extends AsyncTask<Void, String, Void> {
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            // The rows only reference the cheeses: 4 MB for 1M rows
+            final String[] rows = new String[ROW_COUNT];
+            for (int i = 0; i < ROW_COUNT; i++) {
+                rows[i] = Cheeses.CHEESES[i % Cheeses.CHEESES.length];
+            }
+
+            run(FancyListActivity.SPECIAL_CHEESE_TAGS, rows);
+
+            final Random random = new Random(SEED);
+            for (int tagCount : RANDOM_TAG_COUNTS) {
+                if (isCancelled()) {
+                    break;
+                }
+                run(randomTags(random, tagCount), rows);
+            }
+            return null;
+        }
+
+        private void run(String[] tags, String[] rows) {
+            long start = SystemClock.elapsedRealtime();
+            int naiveCount = 0;
+            for (int i = 0; i < NAIVE_ROW_COUNT; i++) {
+                for (String tag : tags) {
+                    if (rows[i].contains(tag)) {
+                        naiveCount++;
+                        break;
+                    }
+                }
+            }
+            final long naiveTime = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            final MultiPatternMatcher matcher = new MultiPatternMatcher(tags);
+            final long buildTime = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            final BitSet flags = matcher.matchAll(rows);
+            final long matchTime = SystemClock.elapsedRealtime() - start;
+
+            // Both methods must agree
+            final int matcherCount = flags.get(0, NAIVE_ROW_COUNT).cardinality();
+            if (matcherCount != naiveCount) {
+                Log.e(LOG_TAG, "Mismatch: " + naiveCount + " special rows found by contains(), " + matcherCount + " by the matcher");
+            }
+
+            publishProgress(getString(R.string.benchmark_matcher_result_format, tags.length, naiveTime * 1000000 / NAIVE_ROW_COUNT,
+                    matchTime * 1000000 / ROW_COUNT, buildTime, ROW_COUNT, matchTime, flags.cardinality()));
+        }
+
+        private String[] randomTags(Random random, int count) {
+            final String[] tags = new String[count];
+            final char[] chars = new char[RANDOM_TAG_LENGTH];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < RANDOM_TAG_LENGTH; j++) {
+                    chars[j] = (char) ('a' + random.nextInt(26));
+                }
+                tags[i] = new String(chars);
+            }
+            return tags;
+        }
+
+        @Override
+        protected void onProgressUpdate(String... values) {
+            Log.i(LOG_TAG, values[0]);
+            mResultView.append("\n" + values[0]);
+        }
+    }
+}
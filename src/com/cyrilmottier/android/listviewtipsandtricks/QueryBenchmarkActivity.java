@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import android.app.Activity;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.provider.LatencyProvider;
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler;
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler.NotifyingAsyncQueryListener;
+import com.cyrilmottier.android.listviewtipsandtricks.util.ParallelNotifyingAsyncQueryHandler;
+
+/**
+ * Compares the throughput of {@link NotifyingAsyncQueryHandler} (single shared
+ * worker thread) and {@link ParallelNotifyingAsyncQueryHandler} (prioritized
+ * thread pool) against the {@link LatencyProvider}. A batch of low priority
+ * queries is started, followed by a single high priority query standing for
+ * the query of the visible screen. The time to complete the batch and the
+ * latency of the high priority query are reported for both executors.
+ * <p>
+ * This Activity is not listed with the other samples. It may be started with:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.QueryBenchmarkActivity
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class QueryBenchmarkActivity extends Activity implements NotifyingAsyncQueryListener {
+
+    private static final String LOG_TAG = "QueryBenchmarkActivity";
+
+    private static final int QUERY_COUNT = 24;
+    private static final int LATENCY = 100;
+    private static final int ROWS = 100;
+
+    /**
+     * Batch queries use tokens 0 to QUERY_COUNT - 1. Distinct tokens prevent
+     * any coalescing.
+     */
+    private static final int TOKEN_VISIBLE = QUERY_COUNT;
+
+    private TextView mResultView;
+    private NotifyingAsyncQueryHandler mQueryHandler;
+    private String mRunName;
+    private long mStartTime;
+    private long mVisibleLatency;
+    private int mPendingCount;
+    private boolean mParallelRun;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        mResultView = new TextView(this);
+        mResultView.setText(R.string.benchmark_running);
+        setContentView(mResultView);
+
+        startRun(new NotifyingAsyncQueryHandler(getContentResolver(), this), getString(R.string.benchmark_sequential));
+    }
+
+    @Override
+    protected void onDestroy() {
+        mQueryHandler.clearQueryListener();
+        super.onDestroy();
+    }
+
+    private void startRun(NotifyingAsyncQueryHandler handler, String name) {
+        mQueryHandler = handler;
+        mRunName = name;
+        mPendingCount = QUERY_COUNT + 1;
+        mStartTime = SystemClock.uptimeMillis();
+
+        final Uri uri = LatencyProvider.buildUri(LATENCY, ROWS);
+        for (int token = 0; token < QUERY_COUNT; token++) {
+            handler.startQuery(token, null, uri, null, null, null, null);
+        }
+        handler.startQuery(TOKEN_VISIBLE, SystemClock.uptimeMillis(), uri, null, null, null, null);
+    }
+
+    @Override
+    public void onQueryComplete(int token, Object cookie, Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+        if (token == TOKEN_VISIBLE) {
+            mVisibleLatency = SystemClock.uptimeMillis() - (Long) cookie;
+        }
+        if (--mPendingCount > 0) {
+            return;
+        }
+
+        final long time = SystemClock.uptimeMillis() - mStartTime;
+        final String result = getString(R.string.benchmark_result_format, mRunName, QUERY_COUNT + 1, time, (QUERY_COUNT + 1) * 1000 / Math.max(time, 1),
+                mVisibleLatency);
+        Log.i(LOG_TAG, result);
+        mResultView.append("\n" + result);
+
+        if (!mParallelRun) {
+            mParallelRun = true;
+            mQueryHandler.clearQueryListener();
+
+            final ParallelNotifyingAsyncQueryHandler handler = new ParallelNotifyingAsyncQueryHandler(getContentResolver(), this);
+            for (int token = 0; token < QUERY_COUNT; token++) {
+                handler.setTokenPriority(token, ParallelNotifyingAsyncQueryHandler.PRIORITY_LOW);
+            }
+            handler.setTokenPriority(TOKEN_VISIBLE, ParallelNotifyingAsyncQueryHandler.PRIORITY_HIGH);
+            startRun(handler, getString(R.string.benchmark_parallel));
+        }
+    }
+}
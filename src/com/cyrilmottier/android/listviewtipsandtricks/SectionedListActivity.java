@@ -15,22 +15,43 @@
  */
 package com.cyrilmottier.android.listviewtipsandtricks;
 
+import java.util.Arrays;
+
 import android.app.ListActivity;
 import android.content.Context;
+import android.content.Intent;
+import android.database.AbstractWindowedCursor;
 import android.database.CharArrayBuffer;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.MediaStore.Audio.Media;
-import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
 import android.widget.ListView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
+import com.cyrilmottier.android.listviewtipsandtricks.provider.SyntheticMediaProvider;
+import com.cyrilmottier.android.listviewtipsandtricks.util.CursorSnapshot;
 import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler;
-import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler.NotifyingAsyncQueryListener;
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler.StreamingQueryListener;
+import com.cyrilmottier.android.listviewtipsandtricks.util.PagedCursor;
+import com.cyrilmottier.android.listviewtipsandtricks.util.ParallelNotifyingAsyncQueryHandler;
+import com.cyrilmottier.android.listviewtipsandtricks.util.QueryMetricsHistogram;
+import com.cyrilmottier.android.listviewtipsandtricks.util.QueryResultCache;
+import com.cyrilmottier.android.listviewtipsandtricks.util.ScrollPrefetcher;
+import com.cyrilmottier.android.listviewtipsandtricks.util.SectionIndex;
+import com.cyrilmottier.android.listviewtipsandtricks.widget.SectionedListView;
 
 /**
  * Shows a smart way of handling separators in {@link ListView}s. It also shows
@@ -39,37 +60,769 @@ import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHa
  * 
  * @author Cyril Mottier
  */
-public class SectionedListActivity extends ListActivity implements NotifyingAsyncQueryListener {
+public class SectionedListActivity extends ListActivity implements StreamingQueryListener {
+
+    /**
+     * Boolean extra enabling the paged loading mode: the first page of audio
+     * files is displayed as soon as possible and the next pages are streamed
+     * in the background.
+     */
+    public static final String EXTRA_PAGED = "com.cyrilmottier.android.listviewtipsandtricks.extra.PAGED";
+
+    /**
+     * Boolean extra enabling the snapshot mode: query results are copied in
+     * the background into a {@link CursorSnapshot} and rows are bound from it
+     * rather than from a CursorWindow.
+     */
+    public static final String EXTRA_SNAPSHOT = "com.cyrilmottier.android.listviewtipsandtricks.extra.SNAPSHOT";
+
+    /**
+     * Boolean extra enabling the direction-aware prefetching of pages in paged
+     * mode. When disabled, pages are simply loaded in order. Enabled by
+     * default.
+     */
+    public static final String EXTRA_PREFETCH = "com.cyrilmottier.android.listviewtipsandtricks.extra.PREFETCH";
+
+    /**
+     * Boolean extra enabling the drawing of section headers by the list
+     * itself. Rows are then uniform and don't contain any separator.
+     */
+    public static final String EXTRA_PINNED_HEADERS = "com.cyrilmottier.android.listviewtipsandtricks.extra.PINNED_HEADERS";
+
+    /**
+     * Boolean extra displaying section headers as rows of their own. Headers
+     * and items have distinct view types and are recycled separately. Ignored
+     * when {@link #EXTRA_PINNED_HEADERS} is set.
+     */
+    public static final String EXTRA_HEADER_ROWS = "com.cyrilmottier.android.listviewtipsandtricks.extra.HEADER_ROWS";
+
+    /**
+     * Boolean extra enabling the process-wide {@link QueryResultCache}: when
+     * the Activity is re-created, the audio files are displayed without
+     * querying the media provider again unless they changed in the meantime.
+     * Only results small enough for the cache are copied into a
+     * {@link CursorSnapshot}. Not used in paged mode. Disabled by default so
+     * that the plain and snapshot modes can be compared.
+     */
+    public static final String EXTRA_RESULT_CACHE = "com.cyrilmottier.android.listviewtipsandtricks.extra.RESULT_CACHE";
+
+    /**
+     * Boolean extra enabling the streaming of the query: the first screen of
+     * audio files is displayed as soon as it has been read and the list then
+     * grows chunk by chunk. Not used in paged mode.
+     */
+    public static final String EXTRA_STREAMING = "com.cyrilmottier.android.listviewtipsandtricks.extra.STREAMING";
+
+    /**
+     * Boolean extra re-running the query in the background when audio files
+     * change. Bursts of changes (a media scan for instance) result in a single
+     * requery. Not used in paged mode. Enabled by default.
+     */
+    public static final String EXTRA_AUTO_REQUERY = "com.cyrilmottier.android.listviewtipsandtricks.extra.AUTO_REQUERY";
+
+    private static final String LOG_TAG = "SectionedListActivity";
+
+    /**
+     * Set to true to log snapshot sizes, bind timings and query metrics.
+     */
+    private static final boolean DEBUG = false;
+
+    private static final int TOKEN_COUNT = 1;
+    private static final int TOKEN_PAGE = 2;
+    private static final int TOKEN_PREFETCH_PAGE = 3;
+
+    /**
+     * Number of rows of each page. The first page is large enough to fill the
+     * screen.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Maximum number of page queries in flight. Prefetched pages are queried
+     * along with the visible ones: when the pool of the query handler is
+     * busy, the visible pages are executed first.
+     */
+    private static final int MAX_PAGE_QUERIES = 3;
+
+    /**
+     * Number of rows of the first chunk of a streaming query. Large enough to
+     * fill the screen.
+     */
+    private static final int STREAMING_FIRST_CHUNK_SIZE = 20;
+
+    /**
+     * The list is requeried once no change has been notified for that amount
+     * of milliseconds
+     */
+    private static final int AUTO_REQUERY_DELAY = 1000;
+
+    /**
+     * Maximum number of milliseconds between the first change and the
+     * requery, so that the list is still refreshed during a long media scan
+     */
+    private static final int AUTO_REQUERY_MAX_DELAY = 10000;
+
+    /**
+     * Minimum number of rows loaded ahead of the viewport when prefetching
+     */
+    private static final int PREFETCH_MIN_LOOK_AHEAD = 50;
+
+    /**
+     * When flinging, rows scrolled in that amount of milliseconds are loaded
+     * ahead of the viewport
+     */
+    private static final int PREFETCH_LOOK_AHEAD_TIME = 1000;
 
     private AudioFilesAdapter mAdapter;
     private NotifyingAsyncQueryHandler mQueryHandler;
 
+    /**
+     * The media provider or, in stress mode, the
+     * {@link SyntheticMediaProvider}
+     */
+    private Uri mAudioFilesUri;
+    private SectionIndexTask mSectionIndexTask;
+
+    /**
+     * The Cursor received while a {@link SectionIndexTask} was still running.
+     * Only the latest one is kept.
+     */
+    private Cursor mPendingCursor;
+    private boolean mHasPendingCursor;
+
+    /**
+     * The last replaced {@link SectionIndex}. Reusing its storage prevents
+     * allocating new arrays at each query.
+     */
+    private SectionIndex mRecycledSectionIndex;
+
+    /*
+     * Paged loading mode
+     */
+    private boolean mPaged;
+    private boolean mSnapshot;
+    private boolean mStreaming;
+    private boolean mAutoRequery;
+    private long mQueryStartTime;
+    private QueryMetricsHistogram mQueryMetrics;
+    private boolean mPinnedHeaders;
+    private boolean mHeaderRows;
+    private ScrollPrefetcher mPrefetcher;
+    private PagedCursor mPagedCursor;
+
+    /**
+     * The initials of the first and last rows of each loaded page. They are
+     * all the rows of other pages a page's sections depend on.
+     */
+    private char[] mPageFirstInitials;
+    private char[] mPageLastInitials;
+    private boolean[] mPageRequested;
+    private int mPageQueryCount;
+
+    /**
+     * Pages received while a {@link PageIndexTask} was running. Pages are
+     * indexed one after the other, each index being built from the previous
+     * one.
+     */
+    private final SparseArray<Cursor> mReceivedPages = new SparseArray<Cursor>();
+    private PageIndexTask mPageIndexTask;
+
+    /**
+     * The first page, when it is received before the number of rows
+     */
+    private Cursor mEarlyFirstPage;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        mAdapter = new AudioFilesAdapter(this, null);
+        setContentView(R.layout.sectioned_list);
+
+        mPinnedHeaders = getIntent().getBooleanExtra(EXTRA_PINNED_HEADERS, false);
+        mHeaderRows = !mPinnedHeaders && getIntent().getBooleanExtra(EXTRA_HEADER_ROWS, false);
+        ((SectionedListView) getListView()).setSectionHeadersEnabled(mPinnedHeaders);
+
+        final int headerMode;
+        if (mPinnedHeaders) {
+            headerMode = AudioFilesAdapter.HEADERS_PINNED;
+        } else if (mHeaderRows) {
+            headerMode = AudioFilesAdapter.HEADERS_AS_ROWS;
+        } else {
+            headerMode = AudioFilesAdapter.HEADERS_IN_ROWS;
+        }
+        mAdapter = new AudioFilesAdapter(this, null, headerMode);
         setListAdapter(mAdapter);
+        getListView().setFastScrollEnabled(true);
+
+        mPaged = getIntent().getBooleanExtra(EXTRA_PAGED, false);
+        mSnapshot = getIntent().getBooleanExtra(EXTRA_SNAPSHOT, false);
+        mStreaming = !mPaged && getIntent().getBooleanExtra(EXTRA_STREAMING, false);
+        mAutoRequery = !mPaged && getIntent().getBooleanExtra(EXTRA_AUTO_REQUERY, true);
+
+        if (StressMode.isEnabled(getIntent())) {
+            mAudioFilesUri = SyntheticMediaProvider.buildUri(StressMode.getSize(getIntent()), StressMode.getSeed(getIntent()));
+        } else {
+            mAudioFilesUri = Media.EXTERNAL_CONTENT_URI;
+        }
 
         // Starts querying the media provider. This is done asynchronously not
         // to possibly block the UI or even worse fire an ANR...
-        mQueryHandler = new NotifyingAsyncQueryHandler(getContentResolver(), this);
-        mQueryHandler.startQuery(Media.EXTERNAL_CONTENT_URI, AudioFilesQuery.PROJECTION, AudioFilesQuery.SORT_ORDER);
+        if (mPaged) {
+            // The count and the pages are independent queries: they are
+            // executed in parallel. Pages that are visible come first.
+            final ParallelNotifyingAsyncQueryHandler handler = new ParallelNotifyingAsyncQueryHandler(getContentResolver(), this);
+            handler.setTokenPriority(TOKEN_COUNT, ParallelNotifyingAsyncQueryHandler.PRIORITY_HIGH);
+            handler.setTokenPriority(TOKEN_PAGE, ParallelNotifyingAsyncQueryHandler.PRIORITY_HIGH);
+            handler.setTokenPriority(TOKEN_PREFETCH_PAGE, ParallelNotifyingAsyncQueryHandler.PRIORITY_LOW);
+            mQueryHandler = handler;
+        } else {
+            mQueryHandler = new NotifyingAsyncQueryHandler(getContentResolver(), this);
+        }
+        if (getIntent().getBooleanExtra(EXTRA_RESULT_CACHE, false)) {
+            mQueryHandler.setResultCache(QueryResultCache.getInstance(this));
+        }
+        if (DEBUG) {
+            mQueryMetrics = new QueryMetricsHistogram();
+            mQueryHandler.setMetricsSink(mQueryMetrics);
+        }
+        if (mAutoRequery) {
+            mQueryHandler.enableAutoRequery(-1, AUTO_REQUERY_DELAY, AUTO_REQUERY_MAX_DELAY);
+        }
+
+        if (mPaged) {
+            if (getIntent().getBooleanExtra(EXTRA_PREFETCH, true)) {
+                mPrefetcher = new ScrollPrefetcher(PREFETCH_MIN_LOOK_AHEAD, PREFETCH_LOOK_AHEAD_TIME);
+                getListView().setOnScrollListener(mPrefetcher);
+            }
+            mQueryHandler.startCountQuery(TOKEN_COUNT, null, mAudioFilesUri);
+            mPageQueryCount++;
+            startPageQuery(0, TOKEN_PAGE);
+        } else if (mStreaming) {
+            // Chunks must be consistent with each other: use a total order
+            mQueryStartTime = SystemClock.uptimeMillis();
+            mQueryHandler.startStreamingQuery(-1, null, mAudioFilesUri, AudioFilesQuery.PROJECTION, null, null,
+                    AudioFilesQuery.PAGED_SORT_ORDER, STREAMING_FIRST_CHUNK_SIZE);
+        } else {
+            mQueryHandler.startQuery(mAudioFilesUri, AudioFilesQuery.PROJECTION, AudioFilesQuery.SORT_ORDER);
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.sectioned_list, menu);
+        StressMode.onCreateOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.menu_paged).setChecked(mPaged);
+        menu.findItem(R.id.menu_snapshot).setChecked(mSnapshot);
+        menu.findItem(R.id.menu_prefetch).setChecked(mPrefetcher != null).setEnabled(mPaged);
+        menu.findItem(R.id.menu_pinned_headers).setChecked(mPinnedHeaders);
+        menu.findItem(R.id.menu_header_rows).setChecked(mHeaderRows).setEnabled(!mPinnedHeaders);
+        menu.findItem(R.id.menu_result_cache).setChecked(mQueryHandler.getResultCache() != null).setEnabled(!mPaged);
+        menu.findItem(R.id.menu_streaming).setChecked(mStreaming).setEnabled(!mPaged);
+        menu.findItem(R.id.menu_auto_requery).setChecked(mAutoRequery).setEnabled(!mPaged);
+        StressMode.onPrepareOptionsMenu(this, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_paged:
+                restart(EXTRA_PAGED, !mPaged);
+                return true;
+
+            case R.id.menu_snapshot:
+                restart(EXTRA_SNAPSHOT, !mSnapshot);
+                return true;
+
+            case R.id.menu_prefetch:
+                restart(EXTRA_PREFETCH, mPrefetcher == null);
+                return true;
+
+            case R.id.menu_pinned_headers:
+                restart(EXTRA_PINNED_HEADERS, !mPinnedHeaders);
+                return true;
+
+            case R.id.menu_header_rows:
+                restart(EXTRA_HEADER_ROWS, !mHeaderRows);
+                return true;
+
+            case R.id.menu_result_cache:
+                restart(EXTRA_RESULT_CACHE, mQueryHandler.getResultCache() == null);
+                return true;
+
+            case R.id.menu_streaming:
+                restart(EXTRA_STREAMING, !mStreaming);
+                return true;
+
+            case R.id.menu_auto_requery:
+                restart(EXTRA_AUTO_REQUERY, !mAutoRequery);
+                return true;
+
+            default:
+                return StressMode.onOptionsItemSelected(this, item) || super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * Modes are chosen at creation time. Simply restart the Activity with the
+     * given mode changed.
+     */
+    private void restart(String mode, boolean enabled) {
+        startActivity(new Intent(getIntent()).putExtra(mode, enabled));
+        finish();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Changes received while stopped result in a single requery
+        mQueryHandler.resumeAutoRequery();
+    }
+
+    @Override
+    protected void onStop() {
+        mQueryHandler.pauseAutoRequery();
+        super.onStop();
     }
 
     @Override
     protected void onDestroy() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "Queries issued: " + mQueryHandler.getIssuedCount() + ", coalesced: " + mQueryHandler.getCoalescedCount()
+                    + ", delivered: " + mQueryHandler.getDeliveredCount() + ", auto-requeried: " + mQueryHandler.getAutoRequeryCount());
+            Log.d(LOG_TAG, mQueryMetrics.toString());
+            final QueryResultCache cache = mQueryHandler.getResultCache();
+            if (cache != null) {
+                Log.d(LOG_TAG, "Result cache hits: " + cache.getHitCount() + ", misses: " + cache.getMissCount() + ", evictions: "
+                        + cache.getEvictionCount() + ", invalidations: " + cache.getInvalidationCount());
+            }
+        }
+
         // Clear any strong reference to this Activity
+        mQueryHandler.disableAutoRequery();
         mQueryHandler.clearQueryListener();
+        mSectionIndexTask = null;
+        mPageIndexTask = null;
+        for (int i = 0; i < mReceivedPages.size(); i++) {
+            mReceivedPages.valueAt(i).close();
+        }
+        mReceivedPages.clear();
+        setPendingCursor(null, false);
+        if (mEarlyFirstPage != null) {
+            mEarlyFirstPage.close();
+            mEarlyFirstPage = null;
+        }
+        // Cursors are not managed: the current one is closed here
+        mAdapter.changeCursor(null, null);
         super.onDestroy();
     }
 
     @Override
     public void onQueryComplete(int token, Object cookie, Cursor cursor) {
+        switch (token) {
+            case TOKEN_COUNT:
+                onCountQueryComplete(cursor);
+                break;
+
+            case TOKEN_PAGE:
+            case TOKEN_PREFETCH_PAGE:
+                mPageQueryCount--;
+                onPageQueryComplete((Integer) cookie, cursor);
+                break;
+
+            default:
+                onFullQueryComplete(cursor);
+                break;
+        }
+    }
+
+    @Override
+    public void onRowsAvailable(int token, Object cookie, Cursor cursor, boolean complete) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, (cursor == null ? 0 : cursor.getCount()) + " rows available after " + (SystemClock.uptimeMillis() - mQueryStartTime)
+                    + " ms" + (complete ? " (complete)" : ""));
+        }
+        // Each chunk contains all the previous rows: it is handled as a new
+        // result. Chunks grow geometrically so indexing all of them costs
+        // about as much as indexing the complete result once and, when chunks
+        // arrive faster than they are indexed, only the latest one is kept.
+        onFullQueryComplete(cursor);
+    }
+
+    private void onFullQueryComplete(Cursor cursor) {
+        if (mSectionIndexTask != null) {
+            // Indexes are built one at a time so that the storage of the
+            // replaced index can be recycled into the next build.
+            setPendingCursor(cursor, true);
+        } else {
+            changeCursor(cursor);
+        }
+    }
+
+    private void setPendingCursor(Cursor cursor, boolean hasPendingCursor) {
+        if (mPendingCursor != null && mPendingCursor != cursor) {
+            mPendingCursor.close();
+        }
+        mPendingCursor = cursor;
+        mHasPendingCursor = hasPendingCursor;
+    }
+
+    private void changeCursor(Cursor cursor) {
+        if (cursor == null) {
+            mAdapter.changeCursor(null, null);
+        } else {
+            // The Cursor is not given to the adapter straight away. The
+            // sections are first computed in the background so that the
+            // adapter never has to move the Cursor while binding.
+            mSectionIndexTask = new SectionIndexTask(cursor, mRecycledSectionIndex);
+            mRecycledSectionIndex = null;
+            mSectionIndexTask.execute();
+        }
+    }
+
+    /**
+     * Computes the {@link SectionIndex} of a freshly queried {@link Cursor} in
+     * a single sequential pass. The {@link Cursor} is handed to the adapter
+     * only once its index is ready.
+     * 
+     * @author Cyril Mottier
+     */
+    private class SectionIndexTask extends AsyncTask<Void, Void, SectionIndex> {
+
+        private Cursor mCursor;
+        private final SectionIndex mRecycledIndex;
+
+        public SectionIndexTask(Cursor cursor, SectionIndex recycledIndex) {
+            mCursor = cursor;
+            mRecycledIndex = recycledIndex;
+        }
+
+        @Override
+        protected SectionIndex doInBackground(Void... params) {
+            mCursor = snapshotIfNeeded(mCursor);
+            return SectionIndex.build(mCursor, AudioFilesQuery.TITLE, mRecycledIndex);
+        }
+
+        @Override
+        protected void onPostExecute(SectionIndex sectionIndex) {
+            // The Activity has been destroyed in the meantime
+            if (mSectionIndexTask != this) {
+                mCursor.close();
+                return;
+            }
+            mSectionIndexTask = null;
+
+            // A newer query completed in the meantime: this Cursor is
+            // useless.
+            if (mHasPendingCursor) {
+                final Cursor pendingCursor = mPendingCursor;
+                mPendingCursor = null;
+                mHasPendingCursor = false;
+                mCursor.close();
+                mRecycledSectionIndex = sectionIndex;
+                changeCursor(pendingCursor);
+                return;
+            }
+
+            // The Cursor is not managed: a managed Cursor is requeried on the
+            // UI thread when the Activity restarts, which would also make the
+            // SectionIndex stale. Changes are handled by the auto-requery of
+            // the query handler instead. The previous Cursor is closed by the
+            // adapter.
+            mRecycledSectionIndex = mAdapter.getSectionIndex();
+            mAdapter.changeCursor(mCursor, sectionIndex);
+            refreshFastScroller(mRecycledSectionIndex, sectionIndex);
+        }
+    }
+
+    /**
+     * In snapshot mode, copies the given {@link Cursor} into a
+     * {@link CursorSnapshot} and closes it. This method is called from a
+     * background thread.
+     * 
+     * @return The {@link Cursor} to use from now on
+     */
+    private Cursor snapshotIfNeeded(Cursor cursor) {
+        // Results of the QueryResultCache are snapshots already
+        if (!mSnapshot || CursorSnapshot.isSnapshotCursor(cursor)) {
+            return cursor;
+        }
+
+        final long start = SystemClock.uptimeMillis();
+        final CursorSnapshot snapshot = CursorSnapshot.create(cursor, AudioFilesQuery.LONG_COLUMNS);
+        cursor.close();
+        if (DEBUG) {
+            Log.d(LOG_TAG, "Snapshot of " + snapshot.getCount() + " rows (" + snapshot.getSizeInBytes() + " bytes) built in "
+                    + (SystemClock.uptimeMillis() - start) + " ms");
+        }
+        return snapshot.newCursor();
+    }
+
+    /**
+     * The fast scroller caches the sections of the adapter. Toggling it is the
+     * only way to have it fetch the sections of the new SectionIndex. This
+     * tears the fast scroller down, even while it is being dragged: it is
+     * only done when the section letters actually changed. Positions are not
+     * cached and don't require a refresh.
+     */
+    private void refreshFastScroller(SectionIndex oldIndex, SectionIndex newIndex) {
+        if (oldIndex != null && Arrays.equals(oldIndex.getSectionLabels(), newIndex.getSectionLabels())) {
+            return;
+        }
+        final ListView listView = getListView();
+        listView.setFastScrollEnabled(false);
+        listView.setFastScrollEnabled(true);
+    }
+
+    private void startPageQuery(int page, int token) {
+        mQueryHandler.startPageQuery(token, page, mAudioFilesUri, AudioFilesQuery.PROJECTION, AudioFilesQuery.PAGED_SORT_ORDER,
+                page * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private void onCountQueryComplete(Cursor cursor) {
+        int count = 0;
         if (cursor != null) {
-            startManagingCursor(cursor);
+            if (cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+            cursor.close();
+        }
+
+        // The adapter immediately displays placeholders for all rows. No
+        // SectionIndex is available until the first page is loaded.
+        mPagedCursor = new PagedCursor(AudioFilesQuery.PROJECTION, count, PAGE_SIZE);
+        mPageFirstInitials = new char[mPagedCursor.getPageCount()];
+        mPageLastInitials = new char[mPagedCursor.getPageCount()];
+        Arrays.fill(mPageFirstInitials, SectionIndex.UNLOADED_INITIAL);
+        Arrays.fill(mPageLastInitials, SectionIndex.UNLOADED_INITIAL);
+        mPageRequested = new boolean[mPagedCursor.getPageCount()];
+        if (mPageRequested.length > 0) {
+            mPageRequested[0] = true;
+        }
+
+        // Not managed either: requerying every loaded page on the UI thread
+        // when the Activity restarts would make the SectionIndex stale.
+        mAdapter.changeCursor(mPagedCursor, null);
+
+        if (mEarlyFirstPage != null) {
+            final Cursor firstPage = mEarlyFirstPage;
+            mEarlyFirstPage = null;
+            onPageQueryComplete(0, firstPage);
+        } else {
+            requestPages();
+        }
+    }
+
+    private void onPageQueryComplete(int page, Cursor cursor) {
+        if (cursor == null) {
+            // The page is not requested again but the others are still loaded
+            if (mPagedCursor != null) {
+                requestPages();
+            }
+            return;
+        }
+        if (mPagedCursor == null && page == 0) {
+            // Queries run in parallel: the count may not be known yet
+            mEarlyFirstPage = cursor;
+            return;
+        }
+        if (mPagedCursor == null || page >= mPagedCursor.getPageCount()) {
+            cursor.close();
+            return;
+        }
+
+        mReceivedPages.put(page, cursor);
+        indexNextPage();
+        requestPages();
+    }
+
+    /**
+     * Starts a {@link PageIndexTask} on a received page unless one is already
+     * running. There is never more than one PageIndexTask at a time.
+     */
+    private void indexNextPage() {
+        if (mPageIndexTask != null || mReceivedPages.size() == 0) {
+            return;
+        }
+        final int page = mReceivedPages.keyAt(0);
+        final Cursor cursor = mReceivedPages.valueAt(0);
+        mReceivedPages.delete(page);
+
+        final char previousInitial = (page > 0) ? mPageLastInitials[page - 1] : SectionIndex.UNLOADED_INITIAL;
+        final char nextInitial = (page + 1 < mPageFirstInitials.length) ? mPageFirstInitials[page + 1] : SectionIndex.UNLOADED_INITIAL;
+        mPageIndexTask = new PageIndexTask(page, cursor, mAdapter.getSectionIndex(), mRecycledSectionIndex, previousInitial, nextInitial);
+        mRecycledSectionIndex = null;
+        mPageIndexTask.execute();
+    }
+
+    /**
+     * Queries the next pages to load, up to {@link #MAX_PAGE_QUERIES} at a
+     * time.
+     */
+    private void requestPages() {
+        while (mPageQueryCount < MAX_PAGE_QUERIES) {
+            final int page = findNextPage();
+            if (page < 0) {
+                return;
+            }
+            mPageRequested[page] = true;
+            mPageQueryCount++;
+            startPageQuery(page, isPageVisible(page) ? TOKEN_PAGE : TOKEN_PREFETCH_PAGE);
+        }
+    }
+
+    private boolean isPageVisible(int page) {
+        if (mPrefetcher == null) {
+            return false;
+        }
+        final int first = getPageForListPosition(mPrefetcher.getFirstVisiblePosition());
+        final int last = getPageForListPosition(mPrefetcher.getLastVisiblePosition());
+        return page >= first && page <= last;
+    }
+
+    /**
+     * Returns the page of the item displayed at the given list position. When
+     * headers are displayed as rows, list positions also count the headers:
+     * they are converted to Cursor positions first and a header belongs to
+     * the page of the first item of its section. The returned page is always
+     * valid, even for positions outside of the list.
+     */
+    private int getPageForListPosition(int listPosition) {
+        final SectionIndex index = mAdapter.getSectionIndex();
+        int position = listPosition;
+        if (mHeaderRows && index != null && listPosition >= 0) {
+            position = index.getItemPosition(listPosition);
+            if (position < 0) {
+                position = index.getPositionForSection(index.getSectionForListPosition(listPosition));
+            }
+        }
+        final int page = mPagedCursor.getPageForPosition(Math.max(0, position));
+        return Math.min(page, mPagedCursor.getPageCount() - 1);
+    }
+
+    /**
+     * Returns the next page to query or -1 if all pages have been requested.
+     * When prefetching, the visible pages are loaded first, then the pages
+     * ahead of the viewport in the scrolling direction. The remaining pages
+     * are loaded in order.
+     */
+    private int findNextPage() {
+        final PagedCursor cursor = mPagedCursor;
+        final int pageCount = cursor.getPageCount();
+
+        if (mPrefetcher != null && pageCount > 0) {
+            final int direction = mPrefetcher.getDirection();
+            final int lookAhead = mPrefetcher.getLookAhead();
+            final int first = mPrefetcher.getFirstVisiblePosition();
+            final int last = Math.max(first, mPrefetcher.getLastVisiblePosition());
+
+            // Pages are scanned from the start of the viewport (in the
+            // scrolling direction) to the end of the look-ahead area. Both
+            // bounds are valid pages so the scan never leaves the array.
+            final int from;
+            final int to;
+            if (direction > 0) {
+                from = getPageForListPosition(first);
+                to = getPageForListPosition(last + lookAhead);
+            } else {
+                from = getPageForListPosition(last);
+                to = getPageForListPosition(first - lookAhead);
+            }
+
+            for (int page = from; page != to + direction; page += direction) {
+                if (!mPageRequested[page]) {
+                    return page;
+                }
+            }
+        }
+
+        for (int page = 0; page < pageCount; page++) {
+            if (!mPageRequested[page]) {
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the initials of a freshly loaded page and adds its rows to the
+     * {@link SectionIndex} of the partially loaded data set. Only the rows of
+     * the page and the first row of the next page are indexed. The new index
+     * is built into the storage of the index replaced by the current one: the
+     * index used by the adapter is only read. The page is added to the
+     * {@link PagedCursor} once the index is ready.
+     * 
+     * @author Cyril Mottier
+     */
+    private class PageIndexTask extends AsyncTask<Void, Void, SectionIndex> {
+
+        private final int mPage;
+        private Cursor mCursor;
+        private final SectionIndex mPreviousIndex;
+        private final SectionIndex mRecycledIndex;
+        private final char mPreviousInitial;
+        private final char mNextInitial;
+        private final int mCount;
+
+        private char mFirstInitial = SectionIndex.UNLOADED_INITIAL;
+        private char mLastInitial = SectionIndex.UNLOADED_INITIAL;
+
+        public PageIndexTask(int page, Cursor cursor, SectionIndex previousIndex, SectionIndex recycledIndex, char previousInitial,
+                char nextInitial) {
+            mPage = page;
+            mCursor = cursor;
+            mPreviousIndex = previousIndex;
+            mRecycledIndex = recycledIndex;
+            mPreviousInitial = previousInitial;
+            mNextInitial = nextInitial;
+            mCount = mPagedCursor.getCount();
+        }
+
+        @Override
+        protected SectionIndex doInBackground(Void... params) {
+            mCursor = snapshotIfNeeded(mCursor);
+
+            final int start = mPage * PAGE_SIZE;
+            final int pageSize = Math.min(PAGE_SIZE, mCount - start);
+            final int rowCount = Math.min(mCursor.getCount(), pageSize);
+            final char[] initials = new char[mCursor.getCount()];
+            SectionIndex.readInitials(mCursor, AudioFilesQuery.TITLE, initials, 0);
+
+            // A short page (the data set changed since it was counted) can't
+            // be connected to the next one
+            final boolean complete = rowCount == pageSize;
+            if (rowCount > 0) {
+                mFirstInitial = initials[0];
+                mLastInitial = complete ? initials[rowCount - 1] : SectionIndex.UNLOADED_INITIAL;
+            }
+            return SectionIndex.addItems(mCount, mPreviousIndex, mRecycledIndex, start, initials, rowCount, mPreviousInitial,
+                    complete ? mNextInitial : SectionIndex.UNLOADED_INITIAL);
+        }
+
+        @Override
+        protected void onPostExecute(SectionIndex sectionIndex) {
+            // The Activity has been destroyed in the meantime
+            if (mPageIndexTask != this) {
+                mCursor.close();
+                return;
+            }
+            mPageIndexTask = null;
+
+            mPageFirstInitials[mPage] = mFirstInitial;
+            mPageLastInitials[mPage] = mLastInitial;
+            mPagedCursor.setPage(mPage, mCursor);
+            mRecycledSectionIndex = mAdapter.getSectionIndex();
+            mAdapter.changeSectionIndex(sectionIndex);
+            refreshFastScroller(mRecycledSectionIndex, sectionIndex);
+
+            indexNextPage();
+            requestPages();
         }
-        mAdapter.changeCursor(cursor);
     }
 
     private static class AudioFilesViewHolder {
@@ -77,92 +830,285 @@ public class SectionedListActivity extends ListActivity implements NotifyingAsyn
         public TextView titleView;
         public CharArrayBuffer titleBuffer = new CharArrayBuffer(128);
         public TextView subtitleView;
-        public StringBuilder subtitleBuffer = new StringBuilder();
+        public CharArrayBuffer albumBuffer = new CharArrayBuffer(128);
+        public CharArrayBuffer artistBuffer = new CharArrayBuffer(128);
+        public char[] subtitleChars = new char[128];
     }
 
-    private static class AudioFilesAdapter extends CursorAdapter {
+    private static class AudioFilesAdapter extends CursorAdapter implements SectionIndexer {
 
         /**
-         * State of ListView item that has never been determined.
+         * Each row contains a separator that is shown when the row starts a
+         * section.
          */
-        private static final int STATE_UNKNOWN = 0;
+        public static final int HEADERS_IN_ROWS = 0;
 
         /**
-         * State of a ListView item that is sectioned. A sectioned item must
-         * display the separator.
+         * Rows are uniform. Headers are drawn by the list itself.
          */
-        private static final int STATE_SECTIONED_CELL = 1;
+        public static final int HEADERS_PINNED = 1;
 
         /**
-         * State of a ListView item that is not sectioned and therefore does not
-         * display the separator.
+         * Headers are rows of their own. Adapter positions are mapped to
+         * Cursor positions through the {@link SectionIndex}.
          */
-        private static final int STATE_REGULAR_CELL = 2;
+        public static final int HEADERS_AS_ROWS = 2;
+
+        private static final int VIEW_TYPE_ITEM = 0;
+        private static final int VIEW_TYPE_HEADER = 1;
 
-        private final CharArrayBuffer mBuffer = new CharArrayBuffer(128);
-        private int[] mCellStates;
+        private static final String[] NO_SECTIONS = {};
 
-        public AudioFilesAdapter(Context context, Cursor cursor) {
-            super(context, cursor);
-            mCellStates = cursor == null ? null : new int[cursor.getCount()];
+        private static final char[] SUBTITLE_SEPARATOR = " - ".toCharArray();
+
+        private final int mHeaderMode;
+        private final boolean mSeparatorInRows;
+        private final boolean mHeaderRows;
+        private SectionIndex mSectionIndex;
+
+        private long mBindTime;
+        private int mBindCount;
+
+        /*
+         * Metrics: number of getView() calls and number of those calls that
+         * hit a row whose data wasn't available yet (placeholder row or
+         * position outside of the current CursorWindow).
+         */
+        private int mViewCount;
+        private int mColdViewCount;
+
+        /**
+         * @param headerMode How section headers are displayed. One of
+         *            {@link #HEADERS_IN_ROWS}, {@link #HEADERS_PINNED} or
+         *            {@link #HEADERS_AS_ROWS}.
+         */
+        public AudioFilesAdapter(Context context, Cursor cursor, int headerMode) {
+            // No auto-requery: the Cursor would be requeried on the UI thread
+            // at each change and the SectionIndex would be stale.
+            super(context, cursor, false);
+            mHeaderMode = headerMode;
+            mSeparatorInRows = headerMode == HEADERS_IN_ROWS;
+            mHeaderRows = headerMode == HEADERS_AS_ROWS;
         }
 
-        @Override
-        public void changeCursor(Cursor cursor) {
+        /**
+         * Change the underlying {@link Cursor} as well as the
+         * {@link SectionIndex} that has been computed for it.
+         * 
+         * @param cursor The new {@link Cursor}
+         * @param sectionIndex The {@link SectionIndex} built from cursor
+         */
+        public void changeCursor(Cursor cursor, SectionIndex sectionIndex) {
+            mSectionIndex = sectionIndex;
             super.changeCursor(cursor);
-            mCellStates = cursor == null ? null : new int[cursor.getCount()];
+        }
+
+        public SectionIndex getSectionIndex() {
+            return mSectionIndex;
+        }
+
+        /**
+         * Change the {@link SectionIndex} of the current {@link Cursor}. This
+         * is used when the content of the {@link Cursor} has been
+         * progressively loaded.
+         * 
+         * @param sectionIndex The new {@link SectionIndex}
+         */
+        public void changeSectionIndex(SectionIndex sectionIndex) {
+            mSectionIndex = sectionIndex;
+            notifyDataSetChanged();
+        }
+
+        /*
+         * SectionIndexer: all lookups are answered by the SectionIndex that
+         * has been built in the background. Contrary to AlphabetIndexer, the
+         * Cursor is never scanned.
+         */
+
+        @Override
+        public Object[] getSections() {
+            return (mSectionIndex == null) ? NO_SECTIONS : mSectionIndex.getSectionLabels();
+        }
+
+        @Override
+        public int getPositionForSection(int section) {
+            final SectionIndex index = mSectionIndex;
+            if (index == null || index.getSectionCount() == 0) {
+                return 0;
+            }
+            section = Math.max(0, Math.min(section, index.getSectionCount() - 1));
+            return mHeaderRows ? index.getListPositionForSection(section) : index.getPositionForSection(section);
+        }
+
+        @Override
+        public int getSectionForPosition(int position) {
+            final SectionIndex index = mSectionIndex;
+            if (index == null || index.getCount() == 0) {
+                return 0;
+            }
+            if (mHeaderRows) {
+                return Math.max(0, index.getSectionForListPosition(Math.min(position, index.getListCount() - 1)));
+            }
+            return Math.max(0, index.getSectionForPosition(Math.min(position, index.getCount() - 1)));
+        }
+
+        /*
+         * Header rows: headers and items have their own view type so that
+         * the ListView recycles them in separate pools. A recycled view never
+         * has to change its structure or visibility. Until a SectionIndex is
+         * available, there is no header and positions are not mapped.
+         */
+
+        @Override
+        public int getCount() {
+            if (mHeaderRows && mSectionIndex != null && getCursor() != null) {
+                return mSectionIndex.getListCount();
+            }
+            return super.getCount();
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return mHeaderRows ? 2 : 1;
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            if (mHeaderRows && mSectionIndex != null && mSectionIndex.isHeaderPosition(position)) {
+                return VIEW_TYPE_HEADER;
+            }
+            return VIEW_TYPE_ITEM;
+        }
+
+        @Override
+        public boolean areAllItemsEnabled() {
+            return !mHeaderRows;
+        }
+
+        @Override
+        public boolean isEnabled(int position) {
+            return getItemViewType(position) == VIEW_TYPE_ITEM;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            final int itemPosition = getItemPosition(position);
+            return itemPosition < 0 ? null : super.getItem(itemPosition);
+        }
+
+        /**
+         * Headers have negative identifiers, distinct from each other and
+         * from the _ID of any item: the identifiers remain stable.
+         */
+        @Override
+        public long getItemId(int position) {
+            final int itemPosition = getItemPosition(position);
+            if (itemPosition < 0) {
+                return -1 - mSectionIndex.getSectionForListPosition(position);
+            }
+            return super.getItemId(itemPosition);
+        }
+
+        /**
+         * Returns the Cursor position of the given adapter position or -1 if
+         * the adapter position is the one of a header.
+         */
+        private int getItemPosition(int position) {
+            if (mHeaderRows && mSectionIndex != null) {
+                return mSectionIndex.getItemPosition(position);
+            }
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final int itemPosition = getItemPosition(position);
+            if (itemPosition < 0) {
+                return getHeaderView(position, convertView, parent);
+            }
+
+            // This has to be checked before CursorAdapter moves the Cursor
+            // (and possibly refills its window)
+            mViewCount++;
+            if (isCold(itemPosition)) {
+                mColdViewCount++;
+            }
+            if (DEBUG && mViewCount % 100 == 0) {
+                Log.d(LOG_TAG, "Cold binds: " + mColdViewCount + "/" + mViewCount);
+            }
+            return super.getView(itemPosition, convertView, parent);
+        }
+
+        private View getHeaderView(int position, View convertView, ViewGroup parent) {
+            TextView header = (TextView) convertView;
+            if (header == null) {
+                header = (TextView) LayoutInflater.from(parent.getContext()).inflate(R.layout.audio_list_item_header, parent, false);
+            }
+            final SectionIndex index = mSectionIndex;
+            header.setText(index.getSectionLabels()[index.getSectionForListPosition(position)]);
+            return header;
+        }
+
+        /**
+         * Returns whether the data of the given position is not immediately
+         * available. Note that Cursors wrapped by the ContentResolver don't
+         * expose their window and are never considered cold.
+         */
+        private boolean isCold(int position) {
+            final Cursor cursor = getCursor();
+            if (cursor instanceof PagedCursor) {
+                return !((PagedCursor) cursor).isLoaded(position);
+            }
+            if (cursor instanceof AbstractWindowedCursor) {
+                final CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+                return window == null || position < window.getStartPosition() || position >= window.getStartPosition() + window.getNumRows();
+            }
+            return false;
         }
 
         @Override
         public void bindView(View view, Context context, Cursor cursor) {
+            if (DEBUG) {
+                final long start = System.nanoTime();
+                bindView(view, cursor);
+                mBindTime += System.nanoTime() - start;
+                if (++mBindCount % 100 == 0) {
+                    Log.d(LOG_TAG, "Average bind time: " + (mBindTime / mBindCount / 1000) + " us");
+                }
+            } else {
+                bindView(view, cursor);
+            }
+        }
+
+        private void bindView(View view, Cursor cursor) {
 
             final AudioFilesViewHolder holder = (AudioFilesViewHolder) view.getTag();
+            final int position = cursor.getPosition();
+
+            if (cursor instanceof PagedCursor && !((PagedCursor) cursor).isLoaded(position)) {
+                bindPlaceholder(holder);
+                return;
+            }
 
             /*
              * Separator
              */
-            boolean needSeparator = false;
-
-            final int position = cursor.getPosition();
             cursor.copyStringToBuffer(AudioFilesQuery.TITLE, holder.titleBuffer);
 
-            switch (mCellStates[position]) {
-                case STATE_SECTIONED_CELL:
-                    needSeparator = true;
-                    break;
+            if (mSeparatorInRows) {
+                // The SectionIndex has been built in the background: there is
+                // no need to move the Cursor to the previous item anymore.
+                // The index is built for this very Cursor. The bound check only
+                // guards against a Cursor whose count changed behind our back.
+                final SectionIndex index = mSectionIndex;
+                final boolean needSeparator = index != null && position < index.getCount() && index.isSectionStart(position);
 
-                case STATE_REGULAR_CELL:
-                    needSeparator = false;
-                    break;
-
-                case STATE_UNKNOWN:
-                default:
-                    // A separator is needed if it's the first itemview of the
-                    // ListView or if the group of the current cell is different
-                    // from the previous itemview.
-                    if (position == 0) {
-                        needSeparator = true;
-                    } else {
-                        cursor.moveToPosition(position - 1);
-
-                        cursor.copyStringToBuffer(AudioFilesQuery.TITLE, mBuffer);
-                        if (mBuffer.sizeCopied > 0 && holder.titleBuffer.sizeCopied > 0 && mBuffer.data[0] != holder.titleBuffer.data[0]) {
-                            needSeparator = true;
-                        }
-
-                        cursor.moveToPosition(position);
-                    }
-
-                    // Cache the result
-                    mCellStates[position] = needSeparator ? STATE_SECTIONED_CELL : STATE_REGULAR_CELL;
-                    break;
-            }
-
-            if (needSeparator) {
-                holder.separator.setText(holder.titleBuffer.data, 0, 1);
-                holder.separator.setVisibility(View.VISIBLE);
-            } else {
-                holder.separator.setVisibility(View.GONE);
+                if (needSeparator) {
+                    holder.separator.setText(holder.titleBuffer.data, 0, 1);
+                    holder.separator.setVisibility(View.VISIBLE);
+                } else {
+                    holder.separator.setVisibility(View.GONE);
+                }
             }
 
             /*
@@ -173,30 +1119,78 @@ public class SectionedListActivity extends ListActivity implements NotifyingAsyn
             /*
              * Subtitle
              */
-            holder.subtitleBuffer.setLength(0);
-            final String album = cursor.getString(AudioFilesQuery.ALBUM);
-            if (!TextUtils.isEmpty(album)) {
-                holder.subtitleBuffer.append(album);
-                final String artist = cursor.getString(AudioFilesQuery.ARTIST);
-                if (!TextUtils.isEmpty(artist)) {
-                    holder.subtitleBuffer.append(" - ");
-                    holder.subtitleBuffer.append(artist);
+            // Calling getString() would allocate two Strings at each bind.
+            // The album and the artist are rather copied into the buffers of
+            // the ViewHolder and joined into a reusable char array.
+            int subtitleLength = 0;
+            cursor.copyStringToBuffer(AudioFilesQuery.ALBUM, holder.albumBuffer);
+            if (holder.albumBuffer.sizeCopied > 0) {
+                subtitleLength = append(holder, subtitleLength, holder.albumBuffer.data, holder.albumBuffer.sizeCopied);
+                cursor.copyStringToBuffer(AudioFilesQuery.ARTIST, holder.artistBuffer);
+                if (holder.artistBuffer.sizeCopied > 0) {
+                    subtitleLength = append(holder, subtitleLength, SUBTITLE_SEPARATOR, SUBTITLE_SEPARATOR.length);
+                    subtitleLength = append(holder, subtitleLength, holder.artistBuffer.data, holder.artistBuffer.sizeCopied);
                 }
             }
-            
-            if (TextUtils.isEmpty(holder.subtitleBuffer)) {
+
+            // Uniform rows keep an empty subtitle rather than changing their
+            // height
+            if (subtitleLength == 0 && mSeparatorInRows) {
                 holder.subtitleView.setVisibility(View.GONE);
             } else {
                 holder.subtitleView.setVisibility(View.VISIBLE);
-                holder.subtitleView.setText(holder.subtitleBuffer);
+                holder.subtitleView.setText(holder.subtitleChars, 0, subtitleLength);
             }
-            
+
+        }
+
+        /**
+         * Bind a row whose page has not been loaded yet.
+         */
+        private void bindPlaceholder(AudioFilesViewHolder holder) {
+            if (mSeparatorInRows) {
+                holder.separator.setVisibility(View.GONE);
+                holder.subtitleView.setVisibility(View.GONE);
+            } else {
+                holder.subtitleView.setText(null);
+            }
+            holder.titleView.setText(R.string.loading);
+        }
+
+        /**
+         * Append the given characters to the subtitle of the given holder. The
+         * subtitle array only grows when it is too small: in a steady state,
+         * this method doesn't allocate anything.
+         * 
+         * @return The new length of the subtitle
+         */
+        private static int append(AudioFilesViewHolder holder, int length, char[] chars, int count) {
+            char[] subtitleChars = holder.subtitleChars;
+            if (length + count > subtitleChars.length) {
+                final char[] newChars = new char[Math.max(length + count, subtitleChars.length * 2)];
+                System.arraycopy(subtitleChars, 0, newChars, 0, length);
+                holder.subtitleChars = subtitleChars = newChars;
+            }
+            System.arraycopy(chars, 0, subtitleChars, length, count);
+            return length + count;
         }
 
         @Override
         public View newView(Context context, Cursor cursor, ViewGroup parent) {
 
-            View v = LayoutInflater.from(context).inflate(R.layout.audio_list_item, parent, false);
+            final int layoutId;
+            switch (mHeaderMode) {
+                case HEADERS_PINNED:
+                    layoutId = R.layout.audio_list_item_uniform;
+                    break;
+                case HEADERS_AS_ROWS:
+                    layoutId = R.layout.audio_list_item_compact;
+                    break;
+                default:
+                    layoutId = R.layout.audio_list_item;
+                    break;
+            }
+            View v = LayoutInflater.from(context).inflate(layoutId, parent, false);
 
             // The following code allows us to keep a reference on the child
             // views of the item. It prevents us from calling findViewById at
@@ -223,11 +1217,22 @@ public class SectionedListActivity extends ListActivity implements NotifyingAsyn
                 Media._ID, Media.TITLE, Media.ALBUM, Media.ARTIST
         };
 
+        int[] LONG_COLUMNS = {
+            0
+        };
+
+        int ID = 0;
         int TITLE = 1;
         int ALBUM = 2;
         int ARTIST = 3;
 
         String SORT_ORDER = Media.TITLE + " ASC";
+
+        /**
+         * Pages must have a total order so that they are consistent with each
+         * other.
+         */
+        String PAGED_SORT_ORDER = Media.TITLE + " ASC, " + Media._ID + " ASC";
     }
 
 }
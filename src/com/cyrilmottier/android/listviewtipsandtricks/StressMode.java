@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.view.Menu;
+import android.view.MenuItem;
+
+import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.data.SyntheticDataset;
+
+/**
+ * The stress mode of the samples: instead of the few hundred
+ * {@link Cheeses}, a sample displays a large {@link SyntheticDataset}. It is
+ * toggled from the options menu of each sample or given at launch time:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.FancyListActivity \
+ *     --ei com.cyrilmottier.android.listviewtipsandtricks.extra.STRESS_SIZE 50000
+ * </pre>
+ * 
+ * The data set is generated in the background on first use (see
+ * {@link #loadCheeses(Intent, OnCheesesLoadedListener)}) and kept until a
+ * sample is started with another size or without the stress mode: samples
+ * started with the same size and seed share it.
+ * <p>
+ * An entry costs about 100 bytes of heap, a row of the
+ * {@link com.cyrilmottier.android.listviewtipsandtricks.provider.SyntheticMediaProvider}
+ * about as much and its copy into a
+ * {@link com.cyrilmottier.android.listviewtipsandtricks.util.CursorSnapshot}
+ * as much again. With the 16 to 24 MB heap of an API level 8 device, sizes
+ * above 50,000 may not fit.
+ * 
+ * @author Cyril Mottier
+ */
+public final class StressMode {
+
+    /**
+     * Integer extra giving the number of entries of the data set. The stress
+     * mode is disabled when absent or 0.
+     */
+    public static final String EXTRA_STRESS_SIZE = "com.cyrilmottier.android.listviewtipsandtricks.extra.STRESS_SIZE";
+
+    /**
+     * Long extra giving the seed of the data set. Defaults to
+     * {@link SyntheticDataset#DEFAULT_SEED}.
+     */
+    public static final String EXTRA_STRESS_SEED = "com.cyrilmottier.android.listviewtipsandtricks.extra.STRESS_SEED";
+
+    /**
+     * The size used when the stress mode is enabled from the menu. Small
+     * enough for every sample to fit in the heap of an API level 8 device.
+     */
+    public static final int DEFAULT_SIZE = 20000;
+
+    private static final float SPECIAL_SHARE = 0.1f;
+    private static final float SECTIONED_SHARE = 0.9f;
+
+    /**
+     * The last generated data set. It is replaced as a whole so that it can
+     * be read from the UI thread without ever waiting for a generation.
+     */
+    private static volatile DataSet sDataSet;
+
+    /**
+     * Receives the entries loaded by
+     * {@link StressMode#loadCheeses(Intent, OnCheesesLoadedListener)}.
+     * 
+     * @author Cyril Mottier
+     */
+    public interface OnCheesesLoadedListener {
+
+        /**
+         * Called on the UI thread once the entries are available.
+         */
+        void onCheesesLoaded(String[] cheeses);
+    }
+
+    private StressMode() {
+    }
+
+    public static boolean isEnabled(Intent intent) {
+        return getSize(intent) > 0;
+    }
+
+    public static int getSize(Intent intent) {
+        return intent.getIntExtra(EXTRA_STRESS_SIZE, 0);
+    }
+
+    public static long getSeed(Intent intent) {
+        return intent.getLongExtra(EXTRA_STRESS_SEED, SyntheticDataset.DEFAULT_SEED);
+    }
+
+    /**
+     * Load the entries a sample displays (see {@link #getCheeses(Intent)}).
+     * When they are already available, the listener is called before this
+     * method returns. Otherwise, the data set is generated in the background
+     * and the listener is called once it is ready.
+     * 
+     * @return The task generating the data set, that must be cancelled when
+     *         the sample is destroyed, or null if the listener has already
+     *         been called
+     */
+    public static LoadCheesesTask loadCheeses(Intent intent, OnCheesesLoadedListener listener) {
+        final String[] cheeses = peekCheeses(intent);
+        if (cheeses != null) {
+            listener.onCheesesLoaded(cheeses);
+            return null;
+        }
+        final LoadCheesesTask task = new LoadCheesesTask(intent, listener);
+        task.execute();
+        return task;
+    }
+
+    private static String[] peekCheeses(Intent intent) {
+        final int size = getSize(intent);
+        if (size <= 0) {
+            return getCheeses(intent);
+        }
+        final DataSet dataSet = sDataSet;
+        return (dataSet != null && dataSet.matches(size, getSeed(intent))) ? dataSet.mEntries : null;
+    }
+
+    /**
+     * Returns the entries a sample displays: the cheeses or, in stress mode,
+     * the synthetic data set. About 10% of the synthetic entries are special
+     * for {@link FancyListActivity} and 10% start with a digit. Generating the
+     * data set may take seconds: in stress mode, this method must not be
+     * called from the UI thread.
+     * <p>
+     * No lock is held while generating. Two threads asking for the same new
+     * data set at once both generate it and the last one wins, which is
+     * cheaper than having {@link #peekCheeses(Intent)} wait on the UI
+     * thread.
+     */
+    public static String[] getCheeses(Intent intent) {
+        final int size = getSize(intent);
+        if (size <= 0) {
+            // The stress mode is off: the data set is not kept any longer
+            sDataSet = null;
+            return Cheeses.CHEESES;
+        }
+
+        final long seed = getSeed(intent);
+        DataSet dataSet = sDataSet;
+        if (dataSet == null || !dataSet.matches(size, seed)) {
+            final SyntheticDataset dataset = new SyntheticDataset(seed);
+            dataset.setSpecialShare(SPECIAL_SHARE, FancyListActivity.SPECIAL_CHEESE_TAGS);
+            dataset.setSectionedShare(SECTIONED_SHARE);
+            dataSet = new DataSet(dataset.generate(size), size, seed);
+            sDataSet = dataSet;
+        }
+        return dataSet.mEntries;
+    }
+
+    /**
+     * Add the stress mode item to the options menu of a sample.
+     */
+    public static void onCreateOptionsMenu(Activity activity, Menu menu) {
+        activity.getMenuInflater().inflate(R.menu.stress, menu);
+    }
+
+    public static void onPrepareOptionsMenu(Activity activity, Menu menu) {
+        menu.findItem(R.id.menu_stress).setChecked(isEnabled(activity.getIntent()));
+    }
+
+    /**
+     * Handle the stress mode item. The data set is chosen at creation time:
+     * the sample is restarted.
+     * 
+     * @return true if the item has been handled
+     */
+    public static boolean onOptionsItemSelected(Activity activity, MenuItem item) {
+        if (item.getItemId() != R.id.menu_stress) {
+            return false;
+        }
+        final Intent intent = new Intent(activity.getIntent());
+        intent.putExtra(EXTRA_STRESS_SIZE, isEnabled(intent) ? 0 : DEFAULT_SIZE);
+        activity.startActivity(intent);
+        activity.finish();
+        return true;
+    }
+
+    /**
+     * An immutable generated data set along with the parameters it has been
+     * generated with.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class DataSet {
+
+        private final String[] mEntries;
+        private final int mSize;
+        private final long mSeed;
+
+        public DataSet(String[] entries, int size, long seed) {
+            mEntries = entries;
+            mSize = size;
+            mSeed = seed;
+        }
+
+        public boolean matches(int size, long seed) {
+            return mSize == size && mSeed == seed;
+        }
+    }
+
+    /**
+     * Generates the data set in the background.
+     * 
+     * @author Cyril Mottier
+     */
+    public static class LoadCheesesTask extends AsyncTask<Void, Void, String[]> {
+
+        private final Intent mIntent;
+        private final OnCheesesLoadedListener mListener;
+
+        private LoadCheesesTask(Intent intent, OnCheesesLoadedListener listener) {
+            mIntent = intent;
+            mListener = listener;
+        }
+
+        @Override
+        protected String[] doInBackground(Void... params) {
+            return getCheeses(mIntent);
+        }
+
+        @Override
+        protected void onPostExecute(String[] result) {
+            // The sample has been destroyed in the meantime
+            if (!isCancelled()) {
+                mListener.onCheesesLoaded(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks;
+
+import java.io.IOException;
+
+import android.app.ListActivity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.util.StringPool;
+
+/**
+ * Compares the two ways of shipping the cheeses: the {@link Cheeses} class,
+ * whose initialization creates a String (and its char array) per cheese, and
+ * the "cheeses.pool.jet" {@link StringPool} asset, which is memory-mapped. The
+ * time and Java heap taken by each are displayed on top of the list, which is
+ * bound from the pool without creating any String.
+ * <p>
+ * The initialization of {@link Cheeses} can only be measured once per
+ * process. This Activity is not listed with the other samples. Kill the
+ * application and start it with:
+ * 
+ * <pre>
+ * adb shell am start -n com.cyrilmottier.android.listviewtipsandtricks/.StringPoolBenchmarkActivity
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class StringPoolBenchmarkActivity extends ListActivity {
+
+    private static final String LOG_TAG = "StringPoolBenchmarkActivity";
+
+    private static final String CHEESES_POOL = "cheeses.pool.jet";
+
+    private StringPool mPool;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // Not referenced directly: that would initialize the class first
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        try {
+            Class.forName("com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses");
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        final long arrayTime = System.nanoTime() - start;
+        final long arrayHeap = usedHeap() - heap;
+
+        heap = usedHeap();
+        start = System.nanoTime();
+        try {
+            mPool = StringPool.open(getAssets(), CHEESES_POOL);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Can't open " + CHEESES_POOL, e);
+            finish();
+            return;
+        }
+        final long poolTime = System.nanoTime() - start;
+        final long poolHeap = usedHeap() - heap;
+
+        final String result = getString(R.string.benchmark_pool_result_format, Cheeses.CHEESES.length, arrayTime / 1000, arrayHeap / 1024,
+                mPool.size(), poolTime / 1000, poolHeap / 1024);
+        Log.i(LOG_TAG, result);
+
+        final TextView resultView = new TextView(this);
+        resultView.setText(result);
+        getListView().addHeaderView(resultView, null, false);
+        setListAdapter(new PoolAdapter());
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Binds the rows from the pool. Each row owns a buffer the characters are
+     * copied into: the {@link TextView} displays the buffer as is.
+     * 
+     * @author Cyril Mottier
+     */
+    private class PoolAdapter extends BaseAdapter {
+
+        public int getCount() {
+            return mPool.size();
+        }
+
+        public CharSequence getItem(int position) {
+            return mPool.get(position);
+        }
+
+        public long getItemId(int position) {
+            return position;
+        }
+
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = getLayoutInflater().inflate(R.layout.text_item, parent, false);
+                convertView.setTag(new char[mPool.getMaxLength()]);
+            }
+
+            final char[] buffer = (char[]) convertView.getTag();
+            final int length = mPool.getChars(position, buffer, 0);
+            ((TextView) convertView).setText(buffer, 0, length);
+
+            return convertView;
+        }
+    }
+}
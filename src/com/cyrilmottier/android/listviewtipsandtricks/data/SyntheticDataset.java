@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.data;
+
+import java.util.Random;
+
+import com.cyrilmottier.android.listviewtipsandtricks.util.MultiPatternMatcher;
+
+/**
+ * Generates large data sets shaped like {@link Cheeses#CHEESES}: names made
+ * of pronounceable capitalized words. The output only depends on the seed and
+ * the settings: generating twice gives the same entries. The following can be
+ * configured:
+ * <ul>
+ * <li>the length distribution: normal, with a given mean and standard
+ * deviation,</li>
+ * <li>the share of special entries: entries containing one of the given tags.
+ * The other entries contain none of them,</li>
+ * <li>the share of sectioned entries: entries starting with a letter. The
+ * other entries start with a digit, like track titles.</li>
+ * </ul>
+ * 
+ * @author Cyril Mottier
+ */
+public class SyntheticDataset {
+
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String CONSONANTS = "bcdfghjklmnprstvz";
+    private static final String VOWELS = "aeiou";
+
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int MAX_WORD_LENGTH = 9;
+
+    /**
+     * Number of times a non special entry is generated again when it contains
+     * a tag by chance
+     */
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final long mSeed;
+
+    private int mMeanLength = 14;
+    private int mLengthDeviation = 6;
+
+    private float mSpecialShare;
+    private String[] mSpecialTags = {};
+    private MultiPatternMatcher mSpecialMatcher;
+
+    private float mSectionedShare = 1.0f;
+
+    public SyntheticDataset(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Set the distribution of the entry lengths. Lengths are at least 1.
+     * 
+     * @param mean The mean length
+     * @param deviation The standard deviation of the lengths
+     */
+    public void setLength(int mean, int deviation) {
+        mMeanLength = Math.max(1, mean);
+        mLengthDeviation = Math.max(0, deviation);
+    }
+
+    /**
+     * Set the share of special entries.
+     * 
+     * @param share The share of entries containing one of the tags, between
+     *            0 and 1
+     * @param tags The tags
+     */
+    public void setSpecialShare(float share, String[] tags) {
+        mSpecialShare = (tags.length > 0) ? share : 0;
+        mSpecialTags = tags;
+        mSpecialMatcher = (tags.length > 0) ? new MultiPatternMatcher(tags) : null;
+    }
+
+    /**
+     * Set the share of entries starting with a letter. Defaults to 1.
+     * 
+     * @param share The share, between 0 and 1
+     */
+    public void setSectionedShare(float share) {
+        mSectionedShare = share;
+    }
+
+    /**
+     * Generate a data set. Entries are not sorted.
+     * 
+     * @param size The number of entries
+     * @return The entries
+     */
+    public String[] generate(int size) {
+        final Random random = new Random(mSeed);
+        final String[] entries = new String[size];
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < size; i++) {
+            final int length = Math.max(1, (int) Math.round(mMeanLength + random.nextGaussian() * mLengthDeviation));
+            final boolean sectioned = random.nextFloat() < mSectionedShare;
+            final boolean special = random.nextFloat() < mSpecialShare;
+
+            String entry;
+            int attempts = 0;
+            do {
+                entry = generateEntry(random, builder, length, sectioned);
+            } while (!special && mSpecialMatcher != null && mSpecialMatcher.matches(entry) && ++attempts < MAX_ATTEMPTS);
+
+            if (special) {
+                entry = insertTag(random, entry, mSpecialTags[random.nextInt(mSpecialTags.length)]);
+            }
+            entries[i] = entry;
+        }
+        return entries;
+    }
+
+    private static String generateEntry(Random random, StringBuilder builder, int length, boolean sectioned) {
+        builder.setLength(0);
+        if (!sectioned) {
+            builder.append((char) ('0' + random.nextInt(10)));
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+
+        while (builder.length() < length) {
+            if (builder.length() > 0) {
+                if (builder.length() + 1 == length) {
+                    // No room for another word
+                    break;
+                }
+                builder.append(' ');
+            }
+            final int wordLength = Math.min(length - builder.length(), MIN_WORD_LENGTH
+                    + random.nextInt(MAX_WORD_LENGTH - MIN_WORD_LENGTH + 1));
+            final boolean startsWithVowel = random.nextInt(4) == 0;
+            for (int i = 0; i < wordLength; i++) {
+                final boolean vowel = (i % 2 == 0) == startsWithVowel;
+                final String letters = vowel ? VOWELS : CONSONANTS;
+                char c = letters.charAt(random.nextInt(letters.length()));
+                if (i == 0) {
+                    c = Character.toUpperCase(c);
+                }
+                builder.append(c);
+            }
+        }
+        builder.setLength(Math.min(builder.length(), length));
+        return builder.toString();
+    }
+
+    /**
+     * Replace characters of the entry with the tag, after its first
+     * character so that the section doesn't change
+     */
+    private static String insertTag(Random random, String entry, String tag) {
+        final int length = entry.length();
+        if (length <= tag.length()) {
+            return entry.charAt(0) + tag;
+        }
+        final int position = 1 + random.nextInt(length - tag.length());
+        return entry.substring(0, position) + tag + entry.substring(position + tag.length());
+    }
+}
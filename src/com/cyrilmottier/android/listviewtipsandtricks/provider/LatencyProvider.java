@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+
+/**
+ * A fake {@link ContentProvider} answering queries after an artificial delay.
+ * It is used to benchmark query executors independently of any real
+ * database. The latency and the number of returned rows are given as query
+ * parameters of the {@link Uri} (see {@link #buildUri(int, int)}).
+ * 
+ * @author Cyril Mottier
+ */
+public class LatencyProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.cyrilmottier.android.listviewtipsandtricks.latency";
+
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/items");
+
+    public static final String PARAM_LATENCY = "latency";
+    public static final String PARAM_ROWS = "rows";
+
+    public static final String NAME = "name";
+
+    private static final String[] DEFAULT_PROJECTION = {
+            BaseColumns._ID, NAME
+    };
+
+    /**
+     * Returns a {@link Uri} whose queries take latency milliseconds and return
+     * the given number of rows.
+     */
+    public static Uri buildUri(int latency, int rows) {
+        return CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_LATENCY, Integer.toString(latency))
+                .appendQueryParameter(PARAM_ROWS, Integer.toString(rows))
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final int latency = getIntParameter(uri, PARAM_LATENCY);
+        final int rows = getIntParameter(uri, PARAM_ROWS);
+
+        // Simulates the time spent in the database and in IPC
+        SystemClock.sleep(latency);
+
+        final MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DEFAULT_PROJECTION, rows);
+        final String[] columns = cursor.getColumnNames();
+        final Object[] values = new Object[columns.length];
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = BaseColumns._ID.equals(columns[i]) ? (Object) Long.valueOf(row) : "Item " + row;
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int getIntParameter(Uri uri, String name) {
+        final String value = uri.getQueryParameter(name);
+        try {
+            return (value == null) ? 0 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
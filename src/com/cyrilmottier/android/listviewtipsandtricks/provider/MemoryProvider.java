@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.provider;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler;
+
+/**
+ * A {@link ContentProvider} keeping a single table of items in memory. It is
+ * used to benchmark writes independently of any real database. Changes are
+ * notified on {@link #CONTENT_URI} unless the {@link Uri} of the operation has
+ * been built with {@link NotifyingAsyncQueryHandler#withoutNotification(Uri)}.
+ * <p>
+ * Selections are not supported: items are updated and deleted by
+ * {@link Uri} ({@link #CONTENT_URI} for all items or an item {@link Uri}).
+ * <p>
+ * Providers are instantiated when the application starts, on every API level
+ * the application supports. This provider therefore doesn't override
+ * applyBatch(), which requires API level 5: batches are applied one
+ * operation at a time by the default implementation.
+ * 
+ * @author Cyril Mottier
+ */
+public class MemoryProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.cyrilmottier.android.listviewtipsandtricks.memory";
+
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/items");
+
+    public static final String NAME = "name";
+    public static final String STARRED = "starred";
+
+    private static final String[] COLUMNS = {
+            BaseColumns._ID, NAME, STARRED
+    };
+
+    private static final int ITEMS = 1;
+    private static final int ITEM_ID = 2;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        sUriMatcher.addURI(AUTHORITY, "items", ITEMS);
+        sUriMatcher.addURI(AUTHORITY, "items/#", ITEM_ID);
+    }
+
+    private final TreeMap<Long, ContentValues> mItems = new TreeMap<Long, ContentValues>();
+    private long mNextId = 1;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final MatrixCursor cursor = new MatrixCursor(projection != null ? projection : COLUMNS);
+        final String[] columns = cursor.getColumnNames();
+        final Object[] values = new Object[columns.length];
+
+        switch (sUriMatcher.match(uri)) {
+            case ITEMS:
+                for (Map.Entry<Long, ContentValues> entry : mItems.entrySet()) {
+                    addRow(cursor, columns, values, entry.getKey(), entry.getValue());
+                }
+                break;
+
+            case ITEM_ID:
+                final long id = ContentUris.parseId(uri);
+                final ContentValues item = mItems.get(id);
+                if (item != null) {
+                    addRow(cursor, columns, values, id, item);
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+        return cursor;
+    }
+
+    private static void addRow(MatrixCursor cursor, String[] columns, Object[] values, long id, ContentValues item) {
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = BaseColumns._ID.equals(columns[i]) ? (Object) Long.valueOf(id) : item.get(columns[i]);
+        }
+        cursor.addRow(values);
+    }
+
+    @Override
+    public synchronized Uri insert(Uri uri, ContentValues values) {
+        if (sUriMatcher.match(uri) != ITEMS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        final long id = mNextId++;
+        mItems.put(id, new ContentValues(values));
+        notifyChange(uri);
+        return ContentUris.withAppendedId(CONTENT_URI, id);
+    }
+
+    @Override
+    public synchronized int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        int count = 0;
+        switch (sUriMatcher.match(uri)) {
+            case ITEMS:
+                for (ContentValues item : mItems.values()) {
+                    item.putAll(values);
+                }
+                count = mItems.size();
+                break;
+
+            case ITEM_ID:
+                final ContentValues item = mItems.get(ContentUris.parseId(uri));
+                if (item != null) {
+                    item.putAll(values);
+                    count = 1;
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        if (count > 0) {
+            notifyChange(uri);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+        int count = 0;
+        switch (sUriMatcher.match(uri)) {
+            case ITEMS:
+                count = mItems.size();
+                mItems.clear();
+                break;
+
+            case ITEM_ID:
+                count = (mItems.remove(ContentUris.parseId(uri)) != null) ? 1 : 0;
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        if (count > 0) {
+            notifyChange(uri);
+        }
+        return count;
+    }
+
+    private void notifyChange(Uri uri) {
+        if (NotifyingAsyncQueryHandler.shouldNotify(uri)) {
+            getContext().getContentResolver().notifyChange(CONTENT_URI, null);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.provider;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore.Audio.Media;
+
+import com.cyrilmottier.android.listviewtipsandtricks.data.SyntheticDataset;
+
+/**
+ * A fake media provider serving a large library of audio files generated by
+ * {@link SyntheticDataset}. It answers the queries
+ * {@link com.cyrilmottier.android.listviewtipsandtricks.SectionedListActivity}
+ * sends to the media provider: the {@link Media#_ID}, {@link Media#TITLE},
+ * {@link Media#ALBUM} and {@link Media#ARTIST} columns, "count(*)" and "LIMIT
+ * ... OFFSET ..." clauses at the end of the sort order. Rows are always
+ * sorted by title and then by identifier; selections are ignored.
+ * <p>
+ * The size and the seed of the library are given as query parameters of the
+ * {@link Uri} (see {@link #buildUri(int, long)}). The library is generated on
+ * first query and kept until a library of another size or seed is queried.
+ * Cursors read it directly: no row is copied. A row costs about 100 bytes of
+ * heap: see {@link com.cyrilmottier.android.listviewtipsandtricks.StressMode}
+ * for the sizes that fit on an API level 8 device.
+ * 
+ * @author Cyril Mottier
+ */
+public class SyntheticMediaProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.cyrilmottier.android.listviewtipsandtricks.synthetic_media";
+
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/audio/media");
+
+    public static final String PARAM_ROWS = "rows";
+    public static final String PARAM_SEED = "seed";
+
+    private static final String COUNT_COLUMN = "count(*)";
+
+    private static final String[] DEFAULT_PROJECTION = {
+            Media._ID, Media.TITLE, Media.ALBUM, Media.ARTIST
+    };
+
+    private static final Pattern LIMIT_PATTERN = Pattern.compile("\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Number of tracks per album and per artist, on average
+     */
+    private static final int TRACKS_PER_ALBUM = 10;
+    private static final int TRACKS_PER_ARTIST = 50;
+
+    private static final float SECTIONED_SHARE = 0.9f;
+
+    private Library mLibrary;
+
+    /**
+     * Returns a {@link Uri} whose queries return the given number of audio
+     * files, generated from the given seed.
+     */
+    public static Uri buildUri(int rows, long seed) {
+        return CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_ROWS, Integer.toString(rows))
+                .appendQueryParameter(PARAM_SEED, Long.toString(seed))
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final Library library = getLibrary(getIntParameter(uri, PARAM_ROWS), getLongParameter(uri, PARAM_SEED));
+
+        if (projection != null && projection.length == 1 && COUNT_COLUMN.equalsIgnoreCase(projection[0])) {
+            final MatrixCursor cursor = new MatrixCursor(projection, 1);
+            cursor.addRow(new Object[] {
+                Integer.valueOf(library.titles.length)
+            });
+            return cursor;
+        }
+
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+        if (sortOrder != null) {
+            final Matcher matcher = LIMIT_PATTERN.matcher(sortOrder);
+            if (matcher.find()) {
+                limit = Integer.parseInt(matcher.group(1));
+                if (matcher.group(2) != null) {
+                    offset = Integer.parseInt(matcher.group(2));
+                }
+            }
+        }
+        offset = Math.min(offset, library.titles.length);
+        final int count = Math.min(limit, library.titles.length - offset);
+
+        final Cursor cursor = new LibraryCursor(library, projection != null ? projection : DEFAULT_PROJECTION, offset, count);
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    private synchronized Library getLibrary(int rows, long seed) {
+        if (mLibrary == null || mLibrary.titles.length != rows || mLibrary.seed != seed) {
+            mLibrary = new Library(rows, seed);
+        }
+        return mLibrary;
+    }
+
+    private static int getIntParameter(Uri uri, String name) {
+        final String value = uri.getQueryParameter(name);
+        try {
+            return (value == null) ? 0 : Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long getLongParameter(Uri uri, String name) {
+        final String value = uri.getQueryParameter(name);
+        try {
+            return (value == null) ? SyntheticDataset.DEFAULT_SEED : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return SyntheticDataset.DEFAULT_SEED;
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The audio files, sorted by title. The identifier of a file is its
+     * position plus one so that files with the same title are sorted by
+     * identifier as well.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class Library {
+
+        public final long seed;
+        public final String[] titles;
+        public final String[] albums;
+        public final String[] artists;
+
+        public Library(int rows, long seed) {
+            this.seed = seed;
+
+            SyntheticDataset dataset = new SyntheticDataset(seed);
+            dataset.setSectionedShare(SECTIONED_SHARE);
+            titles = dataset.generate(rows);
+            // Same order as SQLite's default BINARY collation
+            Arrays.sort(titles);
+
+            dataset = new SyntheticDataset(seed + 1);
+            dataset.setLength(12, 4);
+            final String[] albumNames = dataset.generate(rows / TRACKS_PER_ALBUM + 1);
+
+            dataset = new SyntheticDataset(seed + 2);
+            dataset.setLength(10, 3);
+            final String[] artistNames = dataset.generate(rows / TRACKS_PER_ARTIST + 1);
+
+            final Random random = new Random(seed);
+            albums = new String[rows];
+            artists = new String[rows];
+            for (int i = 0; i < rows; i++) {
+                albums[i] = albumNames[random.nextInt(albumNames.length)];
+                artists[i] = artistNames[random.nextInt(artistNames.length)];
+            }
+        }
+    }
+
+    /**
+     * A window of count rows of the library starting at offset.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class LibraryCursor extends AbstractCursor {
+
+        private static final int COLUMN_UNKNOWN = 0;
+        private static final int COLUMN_ID = 1;
+        private static final int COLUMN_TITLE = 2;
+        private static final int COLUMN_ALBUM = 3;
+        private static final int COLUMN_ARTIST = 4;
+
+        private final Library mLibrary;
+        private final String[] mColumnNames;
+        private final int[] mColumns;
+        private final int mOffset;
+        private final int mCount;
+
+        public LibraryCursor(Library library, String[] columnNames, int offset, int count) {
+            mLibrary = library;
+            mColumnNames = columnNames;
+            mOffset = offset;
+            mCount = count;
+
+            mColumns = new int[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                final String name = columnNames[i];
+                if (Media._ID.equals(name)) {
+                    mColumns[i] = COLUMN_ID;
+                } else if (Media.TITLE.equals(name)) {
+                    mColumns[i] = COLUMN_TITLE;
+                } else if (Media.ALBUM.equals(name)) {
+                    mColumns[i] = COLUMN_ALBUM;
+                } else if (Media.ARTIST.equals(name)) {
+                    mColumns[i] = COLUMN_ARTIST;
+                } else {
+                    mColumns[i] = COLUMN_UNKNOWN;
+                }
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            final int row = mOffset + mPos;
+            switch (mColumns[column]) {
+                case COLUMN_ID:
+                    return Long.toString(row + 1);
+                case COLUMN_TITLE:
+                    return mLibrary.titles[row];
+                case COLUMN_ALBUM:
+                    return mLibrary.albums[row];
+                case COLUMN_ARTIST:
+                    return mLibrary.artists[row];
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            return (mColumns[column] == COLUMN_ID) ? mOffset + mPos + 1 : 0;
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mColumns[column] == COLUMN_UNKNOWN;
+        }
+    }
+}
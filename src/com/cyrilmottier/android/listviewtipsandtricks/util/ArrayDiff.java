@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.ArrayList;
+
+/**
+ * Computes a minimal edit script (insertions and deletions) between two arrays
+ * with the greedy algorithm of Myers ("An O(ND) Difference Algorithm and Its
+ * Variations"). The cost is O((N + M) x D) in time where D is the number of
+ * edits: diffing large arrays that differ by a few items is cheap. The common
+ * prefix and suffix are skipped beforehand.
+ * <p>
+ * Backtracking requires keeping the furthest reaching paths of each step, that
+ * is O(D^2) ints. The number of edits is thus bounded: when the arrays differ
+ * too much, {@link #diff(Object[], Object[], int)} gives up and the arrays
+ * should be considered completely different.
+ * 
+ * @author Cyril Mottier
+ */
+public class ArrayDiff {
+
+    /**
+     * Position of the items of the new array that don't come from the old
+     * array
+     */
+    public static final int INSERTED = -1;
+
+    private ArrayDiff() {
+    }
+
+    /**
+     * Compute how to turn oldItems into newItems. Items are compared with
+     * {@link Object#equals(Object)}.
+     * 
+     * @param oldItems The old array
+     * @param newItems The new array
+     * @param maxEdits The maximum number of insertions and deletions
+     * @return An array whose element i is the position in oldItems of the
+     *         item at position i in newItems or {@link #INSERTED} if that item
+     *         has been inserted. Old items that appear nowhere have been
+     *         deleted. Returns null if more than maxEdits edits are needed.
+     */
+    public static int[] diff(Object[] oldItems, Object[] newItems, int maxEdits) {
+        final int oldLength = oldItems.length;
+        final int newLength = newItems.length;
+        final int[] oldPositions = new int[newLength];
+
+        // Common prefix and suffix
+        int prefix = 0;
+        while (prefix < oldLength && prefix < newLength && equals(oldItems[prefix], newItems[prefix])) {
+            oldPositions[prefix] = prefix;
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldLength - prefix && suffix < newLength - prefix
+                && equals(oldItems[oldLength - 1 - suffix], newItems[newLength - 1 - suffix])) {
+            oldPositions[newLength - 1 - suffix] = oldLength - 1 - suffix;
+            suffix++;
+        }
+
+        final int n = oldLength - prefix - suffix;
+        final int m = newLength - prefix - suffix;
+        if (n + m > 0 && !diffMiddle(oldItems, newItems, prefix, n, m, maxEdits, oldPositions)) {
+            return null;
+        }
+        return oldPositions;
+    }
+
+    /**
+     * Diff the n old items and the m new items starting at offset. Myers'
+     * notations: x is a position in the old items, y in the new ones and k =
+     * x - y is a diagonal.
+     */
+    private static boolean diffMiddle(Object[] oldItems, Object[] newItems, int offset, int n, int m, int maxEdits, int[] oldPositions) {
+        for (int y = 0; y < m; y++) {
+            oldPositions[offset + y] = INSERTED;
+        }
+        if (n == 0 || m == 0) {
+            return m + n <= maxEdits;
+        }
+
+        final int maxD = Math.min(n + m, maxEdits);
+        // v[center + k] is the furthest x reached on diagonal k
+        final int center = maxD + 1;
+        final int[] v = new int[2 * maxD + 3];
+
+        // trace.get(d) holds v[-(d-1)..(d-1)] before step d
+        final ArrayList<int[]> trace = new ArrayList<int[]>();
+
+        for (int d = 0; d <= maxD; d++) {
+            final int[] snapshot = new int[Math.max(0, 2 * d - 1)];
+            System.arraycopy(v, center - d + 1, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[center + k - 1] < v[center + k + 1])) {
+                    // Down: insertion of a new item
+                    x = v[center + k + 1];
+                } else {
+                    // Right: deletion of an old item
+                    x = v[center + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && equals(oldItems[offset + x], newItems[offset + y])) {
+                    x++;
+                    y++;
+                }
+                v[center + k] = x;
+
+                if (x >= n && y >= m) {
+                    backtrack(trace, d, n, m, offset, oldPositions);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk the path back from (n, m) to (0, 0) and record the diagonals
+     * (unchanged items).
+     */
+    private static void backtrack(ArrayList<int[]> trace, int edits, int n, int m, int offset, int[] oldPositions) {
+        int x = n;
+        int y = m;
+        for (int d = edits; d > 0; d--) {
+            final int[] v = trace.get(d);
+            final int k = x - y;
+            // v[i] stands for diagonal i - (d - 1)
+            final int shift = d - 1;
+            final int prevK;
+            if (k == -d || (k != d && v[k - 1 + shift] < v[k + 1 + shift])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            final int prevX = v[prevK + shift];
+            final int prevY = prevX - prevK;
+            // The snake following the edit
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                oldPositions[offset + y] = offset + x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        // Initial snake
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            oldPositions[offset + y] = offset + x;
+        }
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+}
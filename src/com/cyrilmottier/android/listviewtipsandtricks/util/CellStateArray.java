@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.Arrays;
+
+/**
+ * A compact storage for the state of the cells of a sectioned list. A cell may
+ * only have three states ({@link #STATE_UNKNOWN}, {@link #STATE_SECTIONED_CELL}
+ * and {@link #STATE_REGULAR_CELL}) so each state is packed on 2 bits. Compared
+ * to a plain int[], this divides the memory footprint by 16:
+ * 
+ * <pre>
+ *    rows |   int[] | CellStateArray
+ *     10k |   40 KB |   2.5 KB
+ *    100k |  400 KB |    25 KB
+ *      1M |    4 MB |   250 KB
+ * </pre>
+ * 
+ * A {@link CellStateArray} can be reused across data set changes thanks to
+ * {@link #resize(int)}: its storage is reallocated only when it grows.
+ * 
+ * @author Cyril Mottier
+ */
+public class CellStateArray {
+
+    /**
+     * State of ListView item that has never been determined.
+     */
+    public static final int STATE_UNKNOWN = 0;
+
+    /**
+     * State of a ListView item that is sectioned. A sectioned item must display
+     * the separator.
+     */
+    public static final int STATE_SECTIONED_CELL = 1;
+
+    /**
+     * State of a ListView item that is not sectioned and therefore does not
+     * display the separator.
+     */
+    public static final int STATE_REGULAR_CELL = 2;
+
+    private static final int BITS_PER_CELL = 2;
+    private static final int CELLS_PER_WORD_SHIFT = 5; // 64 / BITS_PER_CELL = 32 cells
+    private static final int CELL_INDEX_MASK = (1 << CELLS_PER_WORD_SHIFT) - 1;
+    private static final long STATE_MASK = (1 << BITS_PER_CELL) - 1;
+
+    private long[] mWords;
+    private int mSize;
+
+    public CellStateArray(int size) {
+        mWords = new long[wordCount(size)];
+        mSize = size;
+    }
+
+    /**
+     * Returns the number of cells in this array.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Change the number of cells of this array and reset all of them to
+     * {@link #STATE_UNKNOWN}. The underlying storage is reused as long as it is
+     * large enough.
+     * 
+     * @param size The new number of cells
+     */
+    public void resize(int size) {
+        final int wordCount = wordCount(size);
+        if (wordCount > mWords.length) {
+            mWords = new long[wordCount];
+        } else {
+            // Words past the current size may hold stale states, left by a
+            // copy of a larger array: all the words of the new size are
+            // cleared.
+            Arrays.fill(mWords, 0, wordCount, 0);
+        }
+        mSize = size;
+    }
+
+    /**
+     * Returns the state of the cell at the given position.
+     * 
+     * @param position The position of the cell
+     * @return The state of the cell
+     */
+    public int get(int position) {
+        checkPosition(position);
+        final int shift = (position & CELL_INDEX_MASK) * BITS_PER_CELL;
+        return (int) ((mWords[position >> CELLS_PER_WORD_SHIFT] >>> shift) & STATE_MASK);
+    }
+
+    /**
+     * Change the state of the cell at the given position.
+     * 
+     * @param position The position of the cell
+     * @param state The new state of the cell
+     */
+    public void set(int position, int state) {
+        checkPosition(position);
+        final int shift = (position & CELL_INDEX_MASK) * BITS_PER_CELL;
+        final int index = position >> CELLS_PER_WORD_SHIFT;
+        mWords[index] = (mWords[index] & ~(STATE_MASK << shift)) | ((state & STATE_MASK) << shift);
+    }
+
+    /**
+     * Make this array a copy of the given one. The underlying storage is
+     * reused as long as it is large enough.
+     * 
+     * @param src The array to copy
+     */
+    public void copy(CellStateArray src) {
+        final int wordCount = wordCount(src.mSize);
+        if (wordCount > mWords.length) {
+            mWords = new long[wordCount];
+        }
+        System.arraycopy(src.mWords, 0, mWords, 0, wordCount);
+        mSize = src.mSize;
+    }
+
+    /**
+     * Copy the states of a range of cells of the given array, which must be
+     * as large as this one.
+     * 
+     * @param src The array to copy the states from
+     * @param start The position of the first cell to copy
+     * @param end The position following the last cell to copy
+     */
+    public void copy(CellStateArray src, int start, int end) {
+        for (int position = start; position < end; position++) {
+            set(position, src.get(position));
+        }
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + ", size is " + mSize);
+        }
+    }
+
+    private static int wordCount(int size) {
+        return (size + CELL_INDEX_MASK) >> CELLS_PER_WORD_SHIFT;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * An immutable in-memory copy of the content of a {@link Cursor}, stored
+ * column by column. Integer columns are stored in a long[] while text columns
+ * share a single char[] per column plus an int[] of offsets. Compared to a
+ * CursorWindow, there is no per-row header and no window to refill when
+ * scrolling: binding from a snapshot never touches the database.
+ * <p>
+ * A snapshot is created on a background thread with
+ * {@link #create(Cursor, int[])} and read through the {@link Cursor}s returned
+ * by {@link #newCursor()}. As it is immutable, a snapshot may be shared by
+ * several {@link Cursor}s and threads.
+ * 
+ * @author Cyril Mottier
+ */
+public class CursorSnapshot {
+
+    private static final int INITIAL_TEXT_CAPACITY = 64;
+
+    private final String[] mColumnNames;
+    private final int mCount;
+
+    /*
+     * For each column, only one of the following is non-null
+     */
+    private final long[][] mLongColumns;
+    private final char[][] mTextColumns;
+    private final int[][] mTextOffsets;
+
+    /**
+     * Per text column bit set of null values. null when the column contains
+     * no null value.
+     */
+    private final long[][] mNulls;
+
+    private CursorSnapshot(String[] columnNames, int count, long[][] longColumns, char[][] textColumns, int[][] textOffsets, long[][] nulls) {
+        mColumnNames = columnNames;
+        mCount = count;
+        mLongColumns = longColumns;
+        mTextColumns = textColumns;
+        mTextOffsets = textOffsets;
+        mNulls = nulls;
+    }
+
+    /**
+     * Copy the entire content of the given {@link Cursor}. As this method
+     * moves the {@link Cursor}, it must not be used concurrently by another
+     * thread. The {@link Cursor} is not closed.
+     * 
+     * @param cursor The {@link Cursor} to copy
+     * @param longColumnIndexes The indexes of the columns that must be stored
+     *            as integers. All other columns are stored as text.
+     * @return A new {@link CursorSnapshot}
+     */
+    public static CursorSnapshot create(Cursor cursor, int[] longColumnIndexes) {
+
+        final String[] columnNames = cursor.getColumnNames();
+        final int columnCount = columnNames.length;
+        final int count = cursor.getCount();
+
+        final long[][] longColumns = new long[columnCount][];
+        final char[][] textColumns = new char[columnCount][];
+        final int[][] textOffsets = new int[columnCount][];
+        final long[][] nulls = new long[columnCount][];
+        final int[] textLengths = new int[columnCount];
+
+        for (int column = 0; column < columnCount; column++) {
+            if (contains(longColumnIndexes, column)) {
+                longColumns[column] = new long[count];
+            } else {
+                textColumns[column] = new char[INITIAL_TEXT_CAPACITY];
+                textOffsets[column] = new int[count + 1];
+            }
+        }
+
+        final CharArrayBuffer buffer = new CharArrayBuffer(128);
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final int position = cursor.getPosition();
+            for (int column = 0; column < columnCount; column++) {
+                if (longColumns[column] != null) {
+                    longColumns[column][position] = cursor.getLong(column);
+                    continue;
+                }
+
+                if (cursor.isNull(column)) {
+                    if (nulls[column] == null) {
+                        nulls[column] = new long[(count + 63) >> 6];
+                    }
+                    nulls[column][position >> 6] |= 1L << position;
+                    buffer.sizeCopied = 0;
+                } else {
+                    cursor.copyStringToBuffer(column, buffer);
+                }
+
+                final int length = textLengths[column];
+                char[] text = textColumns[column];
+                if (length + buffer.sizeCopied > text.length) {
+                    final char[] newText = new char[Math.max(length + buffer.sizeCopied, text.length * 2)];
+                    System.arraycopy(text, 0, newText, 0, length);
+                    textColumns[column] = text = newText;
+                }
+                System.arraycopy(buffer.data, 0, text, length, buffer.sizeCopied);
+                textLengths[column] = length + buffer.sizeCopied;
+                textOffsets[column][position + 1] = textLengths[column];
+            }
+        }
+        cursor.moveToPosition(-1);
+
+        // Trim text columns to their exact size
+        for (int column = 0; column < columnCount; column++) {
+            final char[] text = textColumns[column];
+            if (text != null && text.length != textLengths[column]) {
+                textColumns[column] = new char[textLengths[column]];
+                System.arraycopy(text, 0, textColumns[column], 0, textLengths[column]);
+            }
+        }
+
+        return new CursorSnapshot(columnNames, count, longColumns, textColumns, textOffsets, nulls);
+    }
+
+    /**
+     * Estimate the value {@link #getSizeInBytes()} would return for a snapshot
+     * of the given {@link Cursor}, from its first rows only. This is much
+     * cheaper than creating the snapshot and lets clients skip snapshots that
+     * would not fit in memory. As this method moves the {@link Cursor}, it
+     * must not be used concurrently by another thread.
+     * 
+     * @param cursor The {@link Cursor} that would be copied
+     * @param longColumnIndexes The indexes of the columns that would be stored
+     *            as integers
+     * @param sampleSize The maximum number of rows to read
+     * @return The estimated size in bytes, capped at Integer.MAX_VALUE
+     */
+    public static int estimateSizeInBytes(Cursor cursor, int[] longColumnIndexes, int sampleSize) {
+
+        final int columnCount = cursor.getColumnCount();
+        final int count = cursor.getCount();
+        final int sampledCount = Math.min(count, sampleSize);
+
+        // Fixed part: integers and text offsets
+        long rowSize = 0;
+        for (int column = 0; column < columnCount; column++) {
+            rowSize += contains(longColumnIndexes, column) ? 8 : 4;
+        }
+
+        long textLength = 0;
+        final CharArrayBuffer buffer = new CharArrayBuffer(128);
+        for (int position = 0; position < sampledCount && cursor.moveToPosition(position); position++) {
+            for (int column = 0; column < columnCount; column++) {
+                if (!contains(longColumnIndexes, column) && !cursor.isNull(column)) {
+                    cursor.copyStringToBuffer(column, buffer);
+                    textLength += buffer.sizeCopied;
+                }
+            }
+        }
+        cursor.moveToPosition(-1);
+
+        if (sampledCount > 0) {
+            rowSize += textLength * 2 / sampledCount;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, rowSize * count);
+    }
+
+    /**
+     * Create a new snapshot containing the rows of first followed by the rows
+     * of second. Both snapshots must have the same columns, stored the same
+     * way. They are left unchanged.
+     * 
+     * @param first The first rows
+     * @param second The rows to append
+     * @return A new {@link CursorSnapshot}
+     */
+    public static CursorSnapshot concat(CursorSnapshot first, CursorSnapshot second) {
+
+        final int columnCount = first.mColumnNames.length;
+        final int count = first.mCount + second.mCount;
+
+        final long[][] longColumns = new long[columnCount][];
+        final char[][] textColumns = new char[columnCount][];
+        final int[][] textOffsets = new int[columnCount][];
+        final long[][] nulls = new long[columnCount][];
+
+        for (int column = 0; column < columnCount; column++) {
+            if (first.mLongColumns[column] != null) {
+                longColumns[column] = new long[count];
+                System.arraycopy(first.mLongColumns[column], 0, longColumns[column], 0, first.mCount);
+                System.arraycopy(second.mLongColumns[column], 0, longColumns[column], first.mCount, second.mCount);
+                continue;
+            }
+
+            final char[] firstText = first.mTextColumns[column];
+            final char[] secondText = second.mTextColumns[column];
+            final char[] text = new char[firstText.length + secondText.length];
+            System.arraycopy(firstText, 0, text, 0, firstText.length);
+            System.arraycopy(secondText, 0, text, firstText.length, secondText.length);
+            textColumns[column] = text;
+
+            // Offsets of the second snapshot are shifted by the length of the
+            // text of the first one
+            final int[] offsets = new int[count + 1];
+            System.arraycopy(first.mTextOffsets[column], 0, offsets, 0, first.mCount + 1);
+            final int[] secondOffsets = second.mTextOffsets[column];
+            for (int i = 1; i <= second.mCount; i++) {
+                offsets[first.mCount + i] = firstText.length + secondOffsets[i];
+            }
+            textOffsets[column] = offsets;
+
+            if (first.mNulls[column] != null || second.mNulls[column] != null) {
+                final long[] bits = new long[(count + 63) >> 6];
+                copyBits(first.mNulls[column], first.mCount, bits, 0);
+                copyBits(second.mNulls[column], second.mCount, bits, first.mCount);
+                nulls[column] = bits;
+            }
+        }
+
+        return new CursorSnapshot(first.mColumnNames, count, longColumns, textColumns, textOffsets, nulls);
+    }
+
+    private static void copyBits(long[] src, int count, long[] dst, int offset) {
+        if (src == null) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if ((src[i >> 6] & (1L << i)) != 0) {
+                final int position = offset + i;
+                dst[position >> 6] |= 1L << position;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows of this snapshot.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns an estimation of the number of bytes used by the data of this
+     * snapshot.
+     */
+    public int getSizeInBytes() {
+        int size = 0;
+        for (int column = 0; column < mColumnNames.length; column++) {
+            if (mLongColumns[column] != null) {
+                size += mLongColumns[column].length * 8;
+            } else {
+                size += mTextColumns[column].length * 2 + mTextOffsets[column].length * 4;
+            }
+            if (mNulls[column] != null) {
+                size += mNulls[column].length * 8;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns a new {@link Cursor} reading this snapshot. Closing it has no
+     * effect on the snapshot.
+     */
+    public Cursor newCursor() {
+        return new SnapshotCursor(this);
+    }
+
+    /**
+     * Returns whether the given {@link Cursor} reads a {@link CursorSnapshot}.
+     */
+    public static boolean isSnapshotCursor(Cursor cursor) {
+        return cursor instanceof SnapshotCursor;
+    }
+
+    private static boolean contains(int[] array, int value) {
+        if (array != null) {
+            for (int item : array) {
+                if (item == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A {@link Cursor} reading the content of a {@link CursorSnapshot}.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+
+        private final CursorSnapshot mSnapshot;
+
+        public SnapshotCursor(CursorSnapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            checkPosition();
+            final long[] longs = mSnapshot.mLongColumns[column];
+            if (longs != null) {
+                return Long.toString(longs[mPos]);
+            }
+            if (isNull(column)) {
+                return null;
+            }
+            final int[] offsets = mSnapshot.mTextOffsets[column];
+            return new String(mSnapshot.mTextColumns[column], offsets[mPos], offsets[mPos + 1] - offsets[mPos]);
+        }
+
+        @Override
+        public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+            checkPosition();
+            if (mSnapshot.mLongColumns[column] != null) {
+                super.copyStringToBuffer(column, buffer);
+                return;
+            }
+
+            // Straight copy from the shared array: no allocation as long as
+            // the buffer is large enough.
+            final int[] offsets = mSnapshot.mTextOffsets[column];
+            final int start = offsets[mPos];
+            final int length = offsets[mPos + 1] - start;
+            if (buffer.data == null || buffer.data.length < length) {
+                buffer.data = new char[length];
+            }
+            System.arraycopy(mSnapshot.mTextColumns[column], start, buffer.data, 0, length);
+            buffer.sizeCopied = length;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            checkPosition();
+            final long[] longs = mSnapshot.mLongColumns[column];
+            if (longs != null) {
+                return longs[mPos];
+            }
+            final String value = getString(column);
+            return (value == null) ? 0 : Long.parseLong(value);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            checkPosition();
+            final long[] longs = mSnapshot.mLongColumns[column];
+            if (longs != null) {
+                return longs[mPos];
+            }
+            final String value = getString(column);
+            return (value == null) ? 0 : Double.parseDouble(value);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            checkPosition();
+            final long[] nulls = mSnapshot.mNulls[column];
+            return nulls != null && (nulls[mPos >> 6] & (1L << mPos)) != 0;
+        }
+    }
+}
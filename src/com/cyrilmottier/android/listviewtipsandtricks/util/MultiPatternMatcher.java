@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Tells whether a text contains at least one of a set of patterns in a single
+ * pass over the text, whatever the number of patterns (Aho-Corasick). Looping
+ * over the patterns with {@link String#contains(CharSequence)} costs
+ * O(patterns x length) per text; this matcher costs O(length).
+ * <p>
+ * The automaton is fully computed at construction time: failure links are
+ * folded into a dense transition table so that matching is a single array
+ * lookup per character and never allocates. Characters are first mapped to
+ * the small alphabet of the characters appearing in the patterns, the table
+ * thus takes (total length of the patterns + 1) x (alphabet size + 1) ints.
+ * <p>
+ * Matching is case-sensitive. Instances are immutable and may be shared
+ * between threads.
+ * 
+ * @author Cyril Mottier
+ */
+public class MultiPatternMatcher {
+
+    /**
+     * Characters below this value are mapped to their class through a table.
+     * The others are looked up in a sorted array.
+     */
+    private static final int DIRECT_CLASS_COUNT = 128;
+
+    /**
+     * Class of the characters not appearing in any pattern
+     */
+    private static final int OTHER_CLASS = 0;
+
+    private final int[] mDirectClasses = new int[DIRECT_CLASS_COUNT];
+    private final char[] mExtraChars;
+    private final int[] mExtraClasses;
+    private final int mClassCount;
+
+    /**
+     * mTransitions[state * mClassCount + class] is the next state
+     */
+    private final int[] mTransitions;
+
+    /**
+     * Whether reaching a state means a pattern has been found
+     */
+    private final boolean[] mAccepting;
+
+    /**
+     * @param patterns The patterns to look for. Empty patterns match any text.
+     */
+    public MultiPatternMatcher(String[] patterns) {
+        // Alphabet of the patterns
+        final StringBuilder extraChars = new StringBuilder();
+        int classCount = 1;
+        int stateCount = 1;
+        for (String pattern : patterns) {
+            stateCount += pattern.length();
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (c < DIRECT_CLASS_COUNT) {
+                    if (mDirectClasses[c] == OTHER_CLASS) {
+                        mDirectClasses[c] = classCount++;
+                    }
+                } else if (extraChars.indexOf(String.valueOf(c)) < 0) {
+                    extraChars.append(c);
+                }
+            }
+        }
+        mExtraChars = extraChars.toString().toCharArray();
+        Arrays.sort(mExtraChars);
+        mExtraClasses = new int[mExtraChars.length];
+        for (int i = 0; i < mExtraClasses.length; i++) {
+            mExtraClasses[i] = classCount++;
+        }
+        mClassCount = classCount;
+
+        // Trie of the patterns. 0 means 'no edge' as the root is never the
+        // target of an edge.
+        final int[] transitions = new int[stateCount * classCount];
+        final boolean[] accepting = new boolean[stateCount];
+        int nextState = 1;
+        for (String pattern : patterns) {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                final int index = state * classCount + classOf(pattern.charAt(i));
+                if (transitions[index] == 0) {
+                    transitions[index] = nextState++;
+                }
+                state = transitions[index];
+            }
+            accepting[state] = true;
+        }
+
+        // Breadth-first traversal computing the failure link of each state
+        // and replacing missing edges by the edges of the failure state.
+        final int[] failures = new int[nextState];
+        final int[] queue = new int[nextState];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classCount; c++) {
+            final int child = transitions[c];
+            if (child != 0) {
+                failures[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            // A state is accepting if one of its suffixes is a pattern
+            accepting[state] |= accepting[failures[state]];
+            for (int c = 0; c < classCount; c++) {
+                final int index = state * classCount + c;
+                final int child = transitions[index];
+                final int fallback = transitions[failures[state] * classCount + c];
+                if (child != 0) {
+                    failures[child] = fallback;
+                    queue[tail++] = child;
+                } else {
+                    transitions[index] = fallback;
+                }
+            }
+        }
+
+        // Patterns sharing prefixes leave unused states at the end
+        mTransitions = new int[nextState * classCount];
+        System.arraycopy(transitions, 0, mTransitions, 0, mTransitions.length);
+        mAccepting = new boolean[nextState];
+        System.arraycopy(accepting, 0, mAccepting, 0, nextState);
+    }
+
+    private int classOf(char c) {
+        if (c < DIRECT_CLASS_COUNT) {
+            return mDirectClasses[c];
+        }
+        final int index = Arrays.binarySearch(mExtraChars, c);
+        return (index < 0) ? OTHER_CLASS : mExtraClasses[index];
+    }
+
+    /**
+     * Returns true if the given text contains at least one of the patterns.
+     */
+    public boolean matches(CharSequence text) {
+        if (mAccepting[0]) {
+            return true;
+        }
+        final int[] transitions = mTransitions;
+        final boolean[] accepting = mAccepting;
+        final int classCount = mClassCount;
+        final int length = text.length();
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            state = transitions[state * classCount + classOf(text.charAt(i))];
+            if (accepting[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Match all the given texts at once. Null texts never match.
+     * 
+     * @param texts The texts to match
+     * @return A {@link BitSet} whose bit i is set if texts[i] contains at
+     *         least one of the patterns.
+     */
+    public BitSet matchAll(String[] texts) {
+        final BitSet result = new BitSet(texts.length);
+        for (int i = 0; i < texts.length; i++) {
+            final String text = texts[i];
+            if (text != null && matches(text)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+}
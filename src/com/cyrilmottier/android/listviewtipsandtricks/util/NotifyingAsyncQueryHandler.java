@@ -16,23 +16,122 @@
 package com.cyrilmottier.android.listviewtipsandtricks.util;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 
 import android.content.AsyncQueryHandler;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 /**
  * A particular {@link AsyncQueryHandler} allowing clients to be notified via a
  * listener. The {@link NotifyingAsyncQueryHandler} also make sure no strong
  * reference is kept on the given listener (as it is often a Context).
+ * <p>
+ * Queries started with
+ * {@link #startCoalescedQuery(int, Object, Uri, String[], String, String[], String)}
+ * are coalesced per token: starting a new query cancels the one that is still
+ * pending for the same token and only the result of the latest query is
+ * delivered to the listener. This prevents rapid requeries from piling up on
+ * the single worker thread of the {@link AsyncQueryHandler}.
+ * <p>
+ * Coalesced queries may also be served by a {@link QueryResultCache} (see
+ * {@link #setResultCache(QueryResultCache)}). On a cache miss, the result is
+ * copied into a {@link CursorSnapshot} on the worker thread and added to the
+ * cache before being delivered. Results whose estimated snapshot is larger
+ * than the cache are delivered as is and never copied.
+ * <p>
+ * Finally, coalesced queries may be streamed (see
+ * {@link #startStreamingQuery(int, Object, Uri, String[], String, String[], String, int)}
+ * ): the first rows are delivered as soon as they have been read and the
+ * following rows in chunks of growing size.
+ * <p>
+ * When a {@link QueryMetricsSink} is installed, the timings of each query are
+ * reported to it once the result has been delivered. When none is installed,
+ * queries are not measured at all.
+ * <p>
+ * The coalesced query of a token may also be re-run automatically each time
+ * its {@link Uri} changes (see {@link #enableAutoRequery(int, long, long)}).
+ * <p>
+ * Writes may be grouped into batches of {@link ContentProviderOperation}s
+ * (see {@link #startBatch(int, Object, String, ArrayList, int, Uri)}). This
+ * requires API level 5: the rest of this class still works on earlier
+ * versions.
  * 
  * @author Cyril Mottier
  */
 public class NotifyingAsyncQueryHandler extends AsyncQueryHandler {
 
+    private static final String[] COUNT_PROJECTION = {
+        "count(*)"
+    };
+
+    /**
+     * Same value as the private constant of {@link AsyncQueryHandler}
+     */
+    private static final int EVENT_ARG_QUERY = 1;
+
+    /**
+     * Each chunk of a streaming query is this number of times larger than the
+     * previous one. The number of queries is thus logarithmic in the number
+     * of rows.
+     */
+    private static final int CHUNK_GROWTH = 4;
+
+    /**
+     * Number of rows read to estimate the size of the snapshot of a result
+     */
+    private static final int SIZE_SAMPLE = 64;
+
+    /**
+     * Query parameter asking a provider not to notify the change made by an
+     * operation (see {@link #withoutNotification(Uri)})
+     */
+    public static final String PARAM_NOTIFY = "notify";
+
+    private static final String LOG_TAG = "NotifyingAsyncQueryHandler";
+
     private WeakReference<NotifyingAsyncQueryListener> mListener;
 
+    /**
+     * The {@link AsyncQueryHandler} only keeps a weak reference on its
+     * {@link ContentResolver} and doesn't expose it to subclasses.
+     */
+    private final WeakReference<ContentResolver> mResolver;
+    private volatile QueryResultCache mResultCache;
+    private volatile QueryMetricsSink mMetricsSink;
+
+    /*
+     * Coalescing: the cookie of the latest query issued for each token and
+     * whether its result is still awaited.
+     */
+    private final SparseArray<CoalescedCookie> mLatestCookies = new SparseArray<CoalescedCookie>();
+    private final SparseBooleanArray mOutstanding = new SparseBooleanArray();
+
+    /*
+     * Auto-requery: the observer of each token and whether requeries are
+     * paused
+     */
+    private final SparseArray<AutoRequery> mAutoRequeries = new SparseArray<AutoRequery>();
+    private boolean mAutoRequeryPaused;
+
+    private int mIssuedCount;
+    private int mCoalescedCount;
+    private int mDeliveredCount;
+    private int mAutoRequeryCount;
+
     /**
      * Client may use this to listen to completed query operations.
      * 
@@ -42,8 +141,94 @@ public class NotifyingAsyncQueryHandler extends AsyncQueryHandler {
         void onQueryComplete(int token, Object cookie, Cursor cursor);
     }
 
+    /**
+     * Listener receiving the results of streaming queries progressively.
+     * Listeners that don't implement this interface only receive the complete
+     * result, through
+     * {@link NotifyingAsyncQueryListener#onQueryComplete(int, Object, Cursor)}.
+     * 
+     * @author Cyril Mottier
+     */
+    public interface StreamingQueryListener extends NotifyingAsyncQueryListener {
+
+        /**
+         * Called each time new rows are available.
+         * 
+         * @param token The token of the query
+         * @param cookie The cookie of the query
+         * @param cursor A {@link Cursor} containing all the rows available so
+         *            far (not only the new ones). The listener owns it.
+         * @param complete Whether this is the last call for this query. When
+         *            the query fails, the last call receives a null Cursor,
+         *            even if rows have been delivered before.
+         */
+        void onRowsAvailable(int token, Object cookie, Cursor cursor, boolean complete);
+    }
+
+    /**
+     * Receives the metrics of the queries of a {@link NotifyingAsyncQueryHandler}.
+     * Metrics are primitive values so that reporting them doesn't allocate.
+     * All durations are in microseconds.
+     * 
+     * @author Cyril Mottier
+     */
+    public interface QueryMetricsSink {
+
+        /**
+         * Called on the thread of the handler right after the result of a
+         * query has been delivered.
+         * 
+         * @param token The token of the query
+         * @param uri The queried {@link Uri}
+         * @param waitTime Time between the start of the query and its
+         *            execution by a worker thread
+         * @param executionTime Time spent by the provider to execute the
+         *            query
+         * @param fillTime Time spent filling the first window of the result
+         *            (or copying the first chunk of a streaming query)
+         * @param rowCount Number of rows of the result
+         * @param dispatchDelay Time between the result being ready and the
+         *            listener being called
+         */
+        void onQueryMetrics(int token, Uri uri, long waitTime, long executionTime, long fillTime, int rowCount, long dispatchDelay);
+    }
+
+    /**
+     * Listener following the progress of the batches started with
+     * {@link NotifyingAsyncQueryHandler#startBatch(int, Object, String, ArrayList, int, Uri)}
+     * . Listeners that don't implement this interface are not notified of
+     * batches.
+     * 
+     * @author Cyril Mottier
+     */
+    public interface BatchListener extends NotifyingAsyncQueryListener {
+
+        /**
+         * Called each time a chunk of operations has been applied, except
+         * for the last one.
+         * 
+         * @param token The token of the batch
+         * @param cookie The cookie of the batch
+         * @param appliedCount The number of operations applied so far
+         * @param totalCount The total number of operations of the batch
+         */
+        void onBatchProgress(int token, Object cookie, int appliedCount, int totalCount);
+
+        /**
+         * Called once the batch is over and the change has been notified.
+         * 
+         * @param token The token of the batch
+         * @param cookie The cookie of the batch
+         * @param appliedCount The number of operations that have been applied
+         * @param successful false if a chunk failed. The following chunks
+         *            have not been applied.
+         */
+        void onBatchComplete(int token, Object cookie, int appliedCount, boolean successful);
+    }
+
     public NotifyingAsyncQueryHandler(ContentResolver resolver, NotifyingAsyncQueryListener listener) {
         super(resolver);
+        mResolver = new WeakReference<ContentResolver>(resolver);
         setQueryListener(listener);
     }
 
@@ -58,16 +243,323 @@ public class NotifyingAsyncQueryHandler extends AsyncQueryHandler {
         mListener = null;
     }
 
+    /**
+     * Set the {@link QueryResultCache} serving coalesced queries. Cached
+     * results are delivered as {@link CursorSnapshot} {@link Cursor}s which
+     * are not notified of content changes. Pass null to disable caching.
+     */
+    public void setResultCache(QueryResultCache cache) {
+        mResultCache = cache;
+    }
+
+    public QueryResultCache getResultCache() {
+        return mResultCache;
+    }
+
+    /**
+     * Set the {@link QueryMetricsSink} receiving the metrics of the queries
+     * started from now on. Pass null to stop measuring queries.
+     */
+    public void setMetricsSink(QueryMetricsSink sink) {
+        mMetricsSink = sink;
+    }
+
+    @Override
+    public void startQuery(int token, Object cookie, Uri uri, String[] projection, String selection, String[] selectionArgs, String orderBy) {
+        final QueryMetricsSink sink = mMetricsSink;
+        if (sink != null) {
+            cookie = new MeasuredCookie(cookie, sink, uri);
+        }
+        super.startQuery(token, cookie, uri, projection, selection, selectionArgs, orderBy);
+    }
+
     public void startQuery(Uri uri, String[] projection) {
-        startQuery(-1, null, uri, projection, null, null, null);
+        startCoalescedQuery(-1, null, uri, projection, null, null, null);
     }
 
     public void startQuery(Uri uri, String[] projection, String sortOrder) {
-        startQuery(-1, null, uri, projection, null, null, sortOrder);
+        startCoalescedQuery(-1, null, uri, projection, null, null, sortOrder);
+    }
+
+    /**
+     * Starts a query that supersedes any query previously started with this
+     * method and the same token. A superseded query that hasn't been executed
+     * yet is cancelled. A superseded query that is already running can't be
+     * interrupted: its result is closed as soon as it is received and never
+     * reaches the listener. As pending operations are cancelled by token,
+     * the token must not be shared with other kinds of operations.
+     * <p>
+     * This method must be called from the thread this handler has been
+     * created on.
+     */
+    public void startCoalescedQuery(int token, Object cookie, Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String orderBy) {
+        startCoalescedQuery(token, cookie, uri, projection, selection, selectionArgs, orderBy, 0, false);
+    }
+
+    /**
+     * Starts a coalesced query whose result is streamed. The query is split
+     * into LIMIT/OFFSET queries: the first one returns firstChunkSize rows so
+     * that the first screen can be displayed as soon as possible and each
+     * following query returns four times more rows than the
+     * previous one. Each chunk is delivered to the
+     * {@link StreamingQueryListener} along with all the previous ones.
+     * <p>
+     * This requires the provider to be backed by a SQLite database. The sort
+     * order must define a total order (include a unique column) for the
+     * chunks to be consistent with each other.
+     * 
+     * @throws IllegalArgumentException if orderBy is null or empty
+     * @see #startCoalescedQuery(int, Object, Uri, String[], String, String[],
+     *      String)
+     */
+    public void startStreamingQuery(int token, Object cookie, Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String orderBy, int firstChunkSize) {
+        if (TextUtils.isEmpty(orderBy)) {
+            throw new IllegalArgumentException("A streaming query requires a sort order");
+        }
+        startCoalescedQuery(token, cookie, uri, projection, selection, selectionArgs, orderBy, Math.max(1, firstChunkSize), false);
+    }
+
+    /**
+     * @param refresh true to bypass the {@link QueryResultCache}. The result
+     *            is still added to it.
+     */
+    private void startCoalescedQuery(final int token, Object cookie, Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String orderBy, int firstChunkSize, boolean refresh) {
+        if (mOutstanding.get(token)) {
+            cancelQuery(token);
+            // A streaming query that is already running stops after its
+            // current chunk
+            mLatestCookies.get(token).cancelled = true;
+            mCoalescedCount++;
+        }
+
+        final QueryResultCache cache = mResultCache;
+        final QueryResultCache.Key key = (cache == null) ? null : new QueryResultCache.Key(uri, projection, selection, selectionArgs, orderBy);
+        final CoalescedCookie coalescedCookie = new CoalescedCookie(cookie, key, firstChunkSize, uri, projection, selection, selectionArgs,
+                orderBy);
+
+        mLatestCookies.put(token, coalescedCookie);
+        mOutstanding.put(token, true);
+        mIssuedCount++;
+
+        final AutoRequery autoRequery = mAutoRequeries.get(token);
+        if (autoRequery != null) {
+            autoRequery.observe(uri);
+        }
+
+        final CursorSnapshot snapshot = (cache == null || refresh) ? null : cache.get(key);
+        if (snapshot == null) {
+            startQuery(token, coalescedCookie, uri, projection, selection, selectionArgs, orderBy);
+        } else {
+            // Delivered asynchronously anyway: clients don't expect to be
+            // called back from within startQuery()
+            post(new Runnable() {
+                public void run() {
+                    deliverResult(token, coalescedCookie, snapshot.newCursor(), true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Re-run the latest coalesced query of the given token each time its
+     * {@link Uri} (or one of its descendants) changes. The requery is
+     * debounced: it runs once no change has been notified for delay
+     * milliseconds, which keeps the list from requerying at each file during
+     * a media scan. As a long scan would postpone it forever, it runs anyway
+     * maxDelay milliseconds after the first change it collapses. The new
+     * result is delivered to the listener as the result of any other query
+     * of that token.
+     * <p>
+     * The {@link Uri} is observed from the next query of the token on.
+     * Clients must call {@link #disableAutoRequery()} once they are done with
+     * this handler.
+     * 
+     * @param token The token of the query
+     * @param delay The delay between the last change notification and the
+     *            requery, in milliseconds
+     * @param maxDelay The maximum delay between the first change notification
+     *            and the requery, in milliseconds
+     */
+    public void enableAutoRequery(int token, long delay, long maxDelay) {
+        disableAutoRequery(token);
+        mAutoRequeries.put(token, new AutoRequery(token, delay, Math.max(delay, maxDelay)));
+    }
+
+    /**
+     * Stop observing the {@link Uri} of the given token.
+     */
+    public void disableAutoRequery(int token) {
+        final AutoRequery autoRequery = mAutoRequeries.get(token);
+        if (autoRequery != null) {
+            autoRequery.observe(null);
+            mAutoRequeries.remove(token);
+        }
+    }
+
+    /**
+     * Stop observing the {@link Uri}s of all tokens.
+     */
+    public void disableAutoRequery() {
+        while (mAutoRequeries.size() > 0) {
+            disableAutoRequery(mAutoRequeries.keyAt(0));
+        }
+    }
+
+    /**
+     * Postpone requeries until {@link #resumeAutoRequery()} is called. Changes
+     * are still tracked: typically called when the Activity is stopped and
+     * nobody looks at the list.
+     */
+    public void pauseAutoRequery() {
+        mAutoRequeryPaused = true;
+        for (int i = 0; i < mAutoRequeries.size(); i++) {
+            mAutoRequeries.valueAt(i).pause();
+        }
+    }
+
+    /**
+     * Resume requeries. Tokens whose {@link Uri} changed while paused are
+     * requeried immediately, once.
+     */
+    public void resumeAutoRequery() {
+        mAutoRequeryPaused = false;
+        for (int i = 0; i < mAutoRequeries.size(); i++) {
+            mAutoRequeries.valueAt(i).resume();
+        }
+    }
+
+    /**
+     * Returns the given {@link Uri} with a query parameter asking the provider
+     * not to notify changes. Operations of a batch typically target such
+     * {@link Uri}s so that observers are notified only once, at the end of
+     * the batch. Providers that don't know this parameter simply ignore it.
+     */
+    public static Uri withoutNotification(Uri uri) {
+        return uri.buildUpon().appendQueryParameter(PARAM_NOTIFY, "false").build();
+    }
+
+    /**
+     * Returns whether a provider should notify the change made on the given
+     * {@link Uri}. See {@link #withoutNotification(Uri)}.
+     */
+    public static boolean shouldNotify(Uri uri) {
+        return !"false".equals(uri.getQueryParameter(PARAM_NOTIFY));
+    }
+
+    /**
+     * Applies a list of operations on the worker thread. Rather than being
+     * applied one by one, the operations are sent to the provider in chunks
+     * of batchSize operations with
+     * {@link ContentResolver#applyBatch(String, ArrayList)}: each chunk is a
+     * single IPC (and a single transaction for providers overriding
+     * applyBatch). The progress is posted to the {@link BatchListener} while
+     * the next chunk is being applied.
+     * <p>
+     * Once all chunks have been applied, a single change is notified on
+     * notifyUri. Operations should target {@link Uri}s built with
+     * {@link #withoutNotification(Uri)} so that the provider doesn't notify
+     * each of them.
+     * <p>
+     * Chunks are applied independently from each other: when a chunk fails,
+     * the previous ones are not rolled back and back references can't cross
+     * chunk boundaries. This method requires API level 5.
+     * 
+     * @param token A token passed to the {@link BatchListener}. Pending
+     *            operations are cancelled by token: it must not be shared
+     *            with other kinds of operations.
+     * @param cookie An object passed to the {@link BatchListener}
+     * @param authority The authority of the provider
+     * @param operations The operations. The list must not be modified until
+     *            the batch is complete.
+     * @param batchSize The number of operations of each chunk. 0 to apply
+     *            all operations at once.
+     * @param notifyUri The {@link Uri} to notify at the end of the batch.
+     *            May be null.
+     */
+    public void startBatch(int token, Object cookie, String authority, ArrayList<ContentProviderOperation> operations, int batchSize,
+            Uri notifyUri) {
+        final int size = (batchSize > 0) ? batchSize : Math.max(1, operations.size());
+        // Routed to the worker as a query whose cookie describes the batch.
+        // Never measured.
+        super.startQuery(token, new BatchCookie(cookie, authority, operations, size, notifyUri), notifyUri, null, null, null, null);
+    }
+
+    /**
+     * Cancel the pending operations of the given token. Subclasses executing
+     * operations elsewhere than on the worker thread must override this
+     * method to cancel them as well.
+     */
+    protected void cancelQuery(int token) {
+        cancelOperation(token);
+    }
+
+    /**
+     * Returns the number of queries started with
+     * {@link #startCoalescedQuery(int, Object, Uri, String[], String, String[], String)}.
+     */
+    public int getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * Returns the number of queries that have been superseded before their
+     * result has been delivered.
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /**
+     * Returns the number of coalesced queries whose result has been
+     * delivered.
+     */
+    public int getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Returns the number of queries automatically re-run after a change.
+     */
+    public int getAutoRequeryCount() {
+        return mAutoRequeryCount;
+    }
+
+    /**
+     * Starts a query returning the number of rows of the given {@link Uri}.
+     * The resulting {@link Cursor} contains a single row with a single column.
+     * This requires the provider to be backed by a SQLite database.
+     */
+    public void startCountQuery(int token, Object cookie, Uri uri) {
+        startQuery(token, cookie, uri, COUNT_PROJECTION, null, null, null);
+    }
+
+    /**
+     * Starts a query returning at most limit rows, starting at the given
+     * offset. The LIMIT/OFFSET clause is appended to the sort order which
+     * requires the provider to be backed by a SQLite database. The sort order
+     * is mandatory: pages of an unsorted query are not guaranteed to be
+     * consistent.
+     */
+    public void startPageQuery(int token, Object cookie, Uri uri, String[] projection, String sortOrder, int offset, int limit) {
+        startQuery(token, cookie, uri, projection, null, null, sortOrder + " LIMIT " + limit + " OFFSET " + offset);
     }
 
     @Override
     protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+        if (cookie instanceof MeasuredCookie) {
+            final MeasuredCookie measuredCookie = (MeasuredCookie) cookie;
+            reportMetrics(token, measuredCookie);
+            cookie = measuredCookie.cookie;
+        }
+
+        if (cookie instanceof CoalescedCookie) {
+            deliverResult(token, (CoalescedCookie) cookie, cursor, true);
+            return;
+        }
+
         final NotifyingAsyncQueryListener listener = (mListener == null) ? null : mListener.get();
         if (listener != null) {
             listener.onQueryComplete(token, cookie, cursor);
@@ -75,4 +567,487 @@ public class NotifyingAsyncQueryHandler extends AsyncQueryHandler {
             cursor.close();
         }
     }
+
+    private void reportMetrics(int token, MeasuredCookie m) {
+        if (m.startTime == 0) {
+            // Executed by the default worker: nothing has been measured
+            return;
+        }
+        final long now = System.nanoTime();
+        final long fillTime = (m.filledTime == 0) ? 0 : m.filledTime - m.executedTime;
+        // Reported before the delivery so that the dispatch delay doesn't
+        // include the time spent in the listener
+        m.sink.onQueryMetrics(token, m.uri, (m.startTime - m.enqueueTime) / 1000, (m.executedTime - m.startTime) / 1000, fillTime / 1000,
+                m.rowCount, (now - m.replyTime) / 1000);
+    }
+
+    /**
+     * Deliver a (possibly partial) result of a coalesced query to the
+     * listener unless a newer query has been started in the meantime. Called
+     * on the thread of this handler.
+     */
+    private void deliverResult(int token, CoalescedCookie coalescedCookie, Cursor cursor, boolean complete) {
+        final NotifyingAsyncQueryListener listener = (mListener == null) ? null : mListener.get();
+
+        if (mLatestCookies.get(token) != coalescedCookie || listener == null) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        if (complete) {
+            mOutstanding.put(token, false);
+            mDeliveredCount++;
+        }
+
+        if (coalescedCookie.firstChunkSize > 0 && listener instanceof StreamingQueryListener) {
+            ((StreamingQueryListener) listener).onRowsAvailable(token, coalescedCookie.cookie, cursor, complete);
+        } else if (complete) {
+            listener.onQueryComplete(token, coalescedCookie.cookie, cursor);
+        } else if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected Handler createHandler(Looper looper) {
+        return new CachingWorkerHandler(looper);
+    }
+
+    /**
+     * The worker of this handler. Cacheable and streaming queries are
+     * executed and copied into a {@link CursorSnapshot} here, on the worker
+     * thread, so that neither the UI thread nor the client has to copy the
+     * result. All other operations are left to the default worker.
+     * 
+     * @author Cyril Mottier
+     */
+    private class CachingWorkerHandler extends WorkerHandler {
+
+        public CachingWorkerHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            final WorkerArgs args = (WorkerArgs) msg.obj;
+            final QueryResultCache cache = mResultCache;
+            final ContentResolver resolver = mResolver.get();
+            final MeasuredCookie measuredCookie = (args.cookie instanceof MeasuredCookie) ? (MeasuredCookie) args.cookie : null;
+            final Object cookie = (measuredCookie == null) ? args.cookie : measuredCookie.cookie;
+            final CoalescedCookie coalescedCookie = (cookie instanceof CoalescedCookie) ? (CoalescedCookie) cookie : null;
+
+            if (msg.arg1 == EVENT_ARG_QUERY && args.cookie instanceof BatchCookie) {
+                applyBatch(msg.what, (BatchCookie) args.cookie, resolver);
+                return;
+            }
+
+            final boolean streaming = coalescedCookie != null && coalescedCookie.firstChunkSize > 0;
+            final boolean cacheable = coalescedCookie != null && coalescedCookie.key != null && cache != null;
+
+            if (msg.arg1 != EVENT_ARG_QUERY || resolver == null || (measuredCookie == null && !streaming && !cacheable)) {
+                super.handleMessage(msg);
+                return;
+            }
+
+            if (measuredCookie != null) {
+                measuredCookie.startTime = System.nanoTime();
+            }
+
+            if (streaming) {
+                stream(msg.what, args, coalescedCookie, measuredCookie, resolver, cacheable ? cache : null);
+                return;
+            }
+
+            final int version = cacheable ? cache.getVersion() : 0;
+            Cursor cursor = null;
+            try {
+                cursor = resolver.query(args.uri, args.projection, args.selection, args.selectionArgs, args.orderBy);
+            } catch (Exception e) {
+                // Same behavior as the default worker: the client receives a
+                // null Cursor
+            }
+            if (measuredCookie != null) {
+                measuredCookie.executedTime = System.nanoTime();
+            }
+
+            if (cursor != null) {
+                final int[] idColumns = cacheable ? findIdColumns(cursor.getColumnNames()) : null;
+                // A snapshot the cache would reject is only a waste of heap:
+                // the Cursor is delivered as is instead.
+                if (cacheable && CursorSnapshot.estimateSizeInBytes(cursor, idColumns, SIZE_SAMPLE) <= cache.getMaxSize()) {
+                    final CursorSnapshot snapshot = CursorSnapshot.create(cursor, idColumns);
+                    cursor.close();
+                    cache.put(coalescedCookie.key, snapshot, version);
+                    cursor = snapshot.newCursor();
+                } else {
+                    // Fills the window, as the default worker does
+                    cursor.getCount();
+                }
+            }
+            if (measuredCookie != null) {
+                measuredCookie.filledTime = System.nanoTime();
+                measuredCookie.rowCount = (cursor == null) ? 0 : cursor.getCount();
+            }
+            args.result = cursor;
+
+            final Message reply = args.handler.obtainMessage(msg.what);
+            reply.obj = args;
+            reply.arg1 = msg.arg1;
+            if (measuredCookie != null) {
+                measuredCookie.replyTime = System.nanoTime();
+            }
+            reply.sendToTarget();
+        }
+
+        /**
+         * Execute a streaming query chunk by chunk. Each chunk is appended to
+         * a {@link CursorSnapshot} of the previous ones and the result is
+         * posted to the thread of the handler. When measured, the execution
+         * and fill times are the ones of the first chunk.
+         */
+        private void stream(final int token, WorkerArgs args, final CoalescedCookie coalescedCookie, final MeasuredCookie measuredCookie,
+                ContentResolver resolver, QueryResultCache cache) {
+            final int version = (cache == null) ? 0 : cache.getVersion();
+
+            CursorSnapshot rows = null;
+            int offset = 0;
+            int limit = coalescedCookie.firstChunkSize;
+            boolean complete = false;
+
+            while (!complete && !coalescedCookie.cancelled) {
+                Cursor cursor = null;
+                try {
+                    cursor = resolver.query(args.uri, args.projection, args.selection, args.selectionArgs, args.orderBy + " LIMIT " + limit
+                            + " OFFSET " + offset);
+                } catch (Exception e) {
+                    // Handled below
+                }
+                if (measuredCookie != null && offset == 0) {
+                    measuredCookie.executedTime = System.nanoTime();
+                }
+                if (cursor == null) {
+                    // Same behavior as the default worker: the client
+                    // receives a null Cursor. The rows read so far are only
+                    // a prefix of the result and must neither be delivered
+                    // as complete nor cached.
+                    rows = null;
+                    complete = true;
+                } else {
+                    final CursorSnapshot chunk = CursorSnapshot.create(cursor, findIdColumns(cursor.getColumnNames()));
+                    cursor.close();
+                    rows = (rows == null) ? chunk : CursorSnapshot.concat(rows, chunk);
+                    complete = chunk.getCount() < limit;
+                    if (measuredCookie != null && offset == 0) {
+                        measuredCookie.filledTime = System.nanoTime();
+                    }
+                    offset += limit;
+                    limit *= CHUNK_GROWTH;
+                }
+
+                if (complete && rows != null && cache != null) {
+                    cache.put(coalescedCookie.key, rows, version);
+                }
+
+                final Cursor result = (rows == null) ? null : rows.newCursor();
+                final boolean last = complete;
+                if (last && measuredCookie != null) {
+                    measuredCookie.rowCount = (rows == null) ? 0 : rows.getCount();
+                    measuredCookie.replyTime = System.nanoTime();
+                }
+                NotifyingAsyncQueryHandler.this.post(new Runnable() {
+                    public void run() {
+                        if (last && measuredCookie != null) {
+                            reportMetrics(token, measuredCookie);
+                        }
+                        deliverResult(token, coalescedCookie, result, last);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Apply a batch chunk by chunk. The progress is posted to the thread
+         * of the handler after each chunk.
+         */
+        private void applyBatch(final int token, final BatchCookie batch, ContentResolver resolver) {
+            final int totalCount = batch.operations.size();
+            int appliedCount = 0;
+            boolean successful = resolver != null;
+
+            while (successful && appliedCount < totalCount) {
+                final int end = Math.min(totalCount, appliedCount + batch.batchSize);
+                successful = batch.apply(resolver, appliedCount, end);
+                if (successful) {
+                    appliedCount = end;
+                    if (appliedCount < totalCount) {
+                        postBatchResult(token, batch, appliedCount, false, true);
+                    }
+                }
+            }
+
+            if (appliedCount > 0 && batch.notifyUri != null) {
+                resolver.notifyChange(batch.notifyUri, null);
+            }
+            postBatchResult(token, batch, appliedCount, true, successful);
+        }
+
+        private void postBatchResult(final int token, final BatchCookie batch, final int appliedCount, final boolean complete,
+                final boolean successful) {
+            NotifyingAsyncQueryHandler.this.post(new Runnable() {
+                public void run() {
+                    final NotifyingAsyncQueryListener listener = (mListener == null) ? null : mListener.get();
+                    if (!(listener instanceof BatchListener)) {
+                        return;
+                    }
+                    if (complete) {
+                        ((BatchListener) listener).onBatchComplete(token, batch.cookie, appliedCount, successful);
+                    } else {
+                        ((BatchListener) listener).onBatchProgress(token, batch.cookie, appliedCount, batch.operations.size());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the indexes of the identifier columns ("_id" or ending with
+     * "_id"). They are stored as integers in snapshots, other columns being
+     * stored as text.
+     */
+    private static int[] findIdColumns(String[] columnNames) {
+        int count = 0;
+        final int[] indexes = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].endsWith("_id")) {
+                indexes[count++] = i;
+            }
+        }
+        final int[] idColumns = new int[count];
+        System.arraycopy(indexes, 0, idColumns, 0, count);
+        return idColumns;
+    }
+
+    /**
+     * Observes the {@link Uri} of the coalesced query of a token and re-runs
+     * it after a change. Notifications are received and requeries are
+     * started on the thread of the handler.
+     * 
+     * @author Cyril Mottier
+     */
+    private class AutoRequery extends ContentObserver implements Runnable {
+
+        private final int mToken;
+        private final long mDelay;
+        private final long mMaxDelay;
+        private Uri mUri;
+
+        /**
+         * A requery has been posted. It is postponed by each change, up to
+         * mMaxDelay after mFirstChangeTime.
+         */
+        private boolean mScheduled;
+        private long mFirstChangeTime;
+
+        /**
+         * A change has been received while paused
+         */
+        private boolean mChanged;
+
+        public AutoRequery(int token, long delay, long maxDelay) {
+            super(NotifyingAsyncQueryHandler.this);
+            mToken = token;
+            mDelay = delay;
+            mMaxDelay = maxDelay;
+        }
+
+        /**
+         * Observe the given {@link Uri} instead of the current one. Pass null
+         * to stop observing.
+         */
+        public void observe(Uri uri) {
+            if (uri != null && uri.equals(mUri)) {
+                return;
+            }
+            final ContentResolver resolver = mResolver.get();
+            if (resolver == null) {
+                return;
+            }
+            if (mUri != null) {
+                resolver.unregisterContentObserver(this);
+                removeCallbacks(this);
+                mScheduled = false;
+                mChanged = false;
+            }
+            mUri = uri;
+            if (uri != null) {
+                resolver.registerContentObserver(uri, true, this);
+            }
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (mAutoRequeryPaused) {
+                mChanged = true;
+            } else {
+                final long now = SystemClock.uptimeMillis();
+                if (!mScheduled) {
+                    // Following notifications are collapsed into this requery
+                    mScheduled = true;
+                    mFirstChangeTime = now;
+                } else {
+                    removeCallbacks(this);
+                }
+                postAtTime(this, Math.min(now + mDelay, mFirstChangeTime + mMaxDelay));
+            }
+        }
+
+        public void pause() {
+            if (mScheduled) {
+                removeCallbacks(this);
+                mScheduled = false;
+                mChanged = true;
+            }
+        }
+
+        public void resume() {
+            if (mChanged) {
+                mChanged = false;
+                mScheduled = true;
+                mFirstChangeTime = SystemClock.uptimeMillis();
+                post(this);
+            }
+        }
+
+        public void run() {
+            mScheduled = false;
+            final CoalescedCookie latest = mLatestCookies.get(mToken);
+            if (latest == null) {
+                return;
+            }
+            mAutoRequeryCount++;
+            // The result cache may not have been invalidated yet: it is only
+            // updated with the new result.
+            startCoalescedQuery(mToken, latest.cookie, latest.uri, latest.projection, latest.selection, latest.selectionArgs, latest.orderBy,
+                    latest.firstChunkSize, true);
+        }
+    }
+
+    /**
+     * Describes a batch of operations. Operations are only referenced from
+     * this class so that {@link NotifyingAsyncQueryHandler} can still be
+     * loaded on API levels lacking {@link ContentProviderOperation}.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class BatchCookie {
+        public final Object cookie;
+        public final String authority;
+        public final ArrayList<ContentProviderOperation> operations;
+        public final int batchSize;
+        public final Uri notifyUri;
+
+        public BatchCookie(Object cookie, String authority, ArrayList<ContentProviderOperation> operations, int batchSize, Uri notifyUri) {
+            this.cookie = cookie;
+            this.authority = authority;
+            this.operations = operations;
+            this.batchSize = batchSize;
+            this.notifyUri = notifyUri;
+        }
+
+        /**
+         * Apply the operations from start (inclusive) to end (exclusive).
+         * Called on the worker thread.
+         * 
+         * @return true if the operations have been applied, false otherwise.
+         */
+        public boolean apply(ContentResolver resolver, int start, int end) {
+            try {
+                resolver.applyBatch(authority, new ArrayList<ContentProviderOperation>(operations.subList(start, end)));
+                return true;
+            } catch (RemoteException e) {
+                Log.w(LOG_TAG, "Batch failed", e);
+            } catch (OperationApplicationException e) {
+                Log.w(LOG_TAG, "Batch failed", e);
+            } catch (RuntimeException e) {
+                // Providers may throw IllegalArgumentException and the like
+                Log.w(LOG_TAG, "Batch failed", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Wraps the cookie of a query measured for a {@link QueryMetricsSink}.
+     * Timestamps are written by the worker thread before the result is sent
+     * to the handler thread which reads them.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class MeasuredCookie {
+        public final Object cookie;
+        public final QueryMetricsSink sink;
+        public final Uri uri;
+        public final long enqueueTime = System.nanoTime();
+
+        public long startTime;
+        public long executedTime;
+        public long filledTime;
+        public long replyTime;
+        public int rowCount;
+
+        public MeasuredCookie(Object cookie, QueryMetricsSink sink, Uri uri) {
+            this.cookie = cookie;
+            this.sink = sink;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * Wraps the cookie of a coalesced query. The identity of this object is
+     * used to tell whether the query is the latest one of its token.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class CoalescedCookie {
+        public final Object cookie;
+
+        /**
+         * The cache key of the query. null when the query is not cacheable.
+         */
+        public final QueryResultCache.Key key;
+
+        /**
+         * The number of rows of the first chunk of a streaming query. 0 when
+         * the query is not streamed.
+         */
+        public final int firstChunkSize;
+
+        /*
+         * The query itself, kept to re-run it automatically
+         */
+        public final Uri uri;
+        public final String[] projection;
+        public final String selection;
+        public final String[] selectionArgs;
+        public final String orderBy;
+
+        /**
+         * Set on the handler thread when a newer query supersedes this one.
+         * Read from the worker thread.
+         */
+        public volatile boolean cancelled;
+
+        public CoalescedCookie(Object cookie, QueryResultCache.Key key, int firstChunkSize, Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String orderBy) {
+            this.cookie = cookie;
+            this.key = key;
+            this.firstChunkSize = firstChunkSize;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.orderBy = orderBy;
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * A {@link Cursor} made of fixed-size pages that are loaded independently. The
+ * {@link PagedCursor} reports the total number of rows from the beginning:
+ * rows belonging to a page that has not been loaded yet are valid positions
+ * returning null/0 values. Clients may check {@link #isLoaded(int)} to display
+ * a placeholder instead.
+ * 
+ * @author Cyril Mottier
+ */
+public class PagedCursor extends AbstractCursor {
+
+    private final String[] mColumnNames;
+    private final int mCount;
+    private final int mPageSize;
+    private final Cursor[] mPages;
+
+    private Cursor mCurrentPage;
+
+    /**
+     * Creates a new {@link PagedCursor} with no loaded page.
+     * 
+     * @param columnNames The names of the columns of the pages
+     * @param count The total number of rows
+     * @param pageSize The number of rows of each page (except possibly the
+     *            last one)
+     */
+    public PagedCursor(String[] columnNames, int count, int pageSize) {
+        mColumnNames = columnNames;
+        mCount = count;
+        mPageSize = pageSize;
+        mPages = new Cursor[(count + pageSize - 1) / pageSize];
+    }
+
+    /**
+     * Returns the number of rows of each page.
+     */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns the number of pages.
+     */
+    public int getPageCount() {
+        return mPages.length;
+    }
+
+    /**
+     * Returns the page containing the given position.
+     */
+    public int getPageForPosition(int position) {
+        return position / mPageSize;
+    }
+
+    /**
+     * Returns whether the given page has been loaded.
+     */
+    public boolean isPageLoaded(int page) {
+        return mPages[page] != null;
+    }
+
+    /**
+     * Returns whether the row at the given position has been loaded.
+     */
+    public boolean isLoaded(int position) {
+        return mPages[position / mPageSize] != null;
+    }
+
+    /**
+     * Set the content of a page. The {@link PagedCursor} takes ownership of
+     * the given {@link Cursor} and closes it when it is closed itself. It is
+     * up to the caller to notify the adapter using this {@link PagedCursor}.
+     * 
+     * @param page The index of the page
+     * @param cursor The content of the page
+     */
+    public void setPage(int page, Cursor cursor) {
+        if (mPages[page] != null) {
+            mPages[page].close();
+        }
+        mPages[page] = cursor;
+
+        // Force the current row to be re-resolved
+        if (mPos >= 0 && mPos < mCount && getPageForPosition(mPos) == page) {
+            onMove(mPos, mPos);
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mCurrentPage = mPages[newPosition / mPageSize];
+        if (mCurrentPage != null) {
+            return mCurrentPage.moveToPosition(newPosition % mPageSize);
+        }
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return (mCurrentPage == null) ? null : mCurrentPage.getString(column);
+    }
+
+    @Override
+    public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+        // AbstractCursor's implementation relies on getString(). Delegating
+        // keeps the allocation-free path of windowed Cursors.
+        if (mCurrentPage == null) {
+            buffer.sizeCopied = 0;
+        } else {
+            mCurrentPage.copyStringToBuffer(column, buffer);
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (mCurrentPage == null) ? 0 : mCurrentPage.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (mCurrentPage == null) ? 0 : mCurrentPage.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return (mCurrentPage == null) ? 0 : mCurrentPage.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (mCurrentPage == null) ? 0 : mCurrentPage.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return (mCurrentPage == null) ? 0 : mCurrentPage.getDouble(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return (mCurrentPage == null) ? true : mCurrentPage.isNull(column);
+    }
+
+    @Override
+    public void deactivate() {
+        for (Cursor page : mPages) {
+            if (page != null) {
+                page.deactivate();
+            }
+        }
+        super.deactivate();
+    }
+
+    @Override
+    public boolean requery() {
+        for (Cursor page : mPages) {
+            if (page != null && !page.requery()) {
+                return false;
+            }
+        }
+        return super.requery();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (int i = 0; i < mPages.length; i++) {
+            if (mPages[i] != null) {
+                mPages[i].close();
+                mPages[i] = null;
+            }
+        }
+        mCurrentPage = null;
+    }
+}
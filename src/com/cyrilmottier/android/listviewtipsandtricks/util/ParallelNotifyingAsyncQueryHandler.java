@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.SparseIntArray;
+
+/**
+ * A {@link NotifyingAsyncQueryHandler} executing its operations on a bounded
+ * pool of threads rather than on the single worker thread shared by all
+ * {@link AsyncQueryHandler}s. Independent queries (a count and a page, several
+ * lists, etc.) no longer wait for each other.
+ * <p>
+ * Operations waiting for a thread are ordered by the priority of their token
+ * (see {@link #setTokenPriority(int, int)}) and then in submission order. This
+ * lets a query for the visible screen jump ahead of prefetch work. The
+ * listener contract is unchanged: results are delivered on the thread this
+ * handler has been created on.
+ * 
+ * @author Cyril Mottier
+ */
+public class ParallelNotifyingAsyncQueryHandler extends NotifyingAsyncQueryHandler {
+
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    private static final int POOL_SIZE = 3;
+
+    private static ThreadPoolExecutor sExecutor;
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    /**
+     * Token priorities are written on the client thread and read on the
+     * dispatching thread.
+     */
+    private final SparseIntArray mPriorities = new SparseIntArray();
+
+    public ParallelNotifyingAsyncQueryHandler(ContentResolver resolver, NotifyingAsyncQueryListener listener) {
+        super(resolver, listener);
+    }
+
+    /**
+     * Set the priority of the operations started with the given token. Tokens
+     * have a {@link #PRIORITY_DEFAULT} priority unless specified otherwise.
+     * 
+     * @param token A token
+     * @param priority The priority of the token. Operations with a higher
+     *            priority are executed first.
+     */
+    public void setTokenPriority(int token, int priority) {
+        synchronized (mPriorities) {
+            mPriorities.put(token, priority);
+        }
+    }
+
+    private int getTokenPriority(int token) {
+        synchronized (mPriorities) {
+            return mPriorities.get(token, PRIORITY_DEFAULT);
+        }
+    }
+
+    @Override
+    protected Handler createHandler(Looper looper) {
+        // Called from the AsyncQueryHandler constructor: fields of this class
+        // are not initialized yet and must only be used lazily.
+        return new DispatchingHandler(looper, super.createHandler(looper));
+    }
+
+    @Override
+    protected void cancelQuery(int token) {
+        // Operations that haven't been dispatched yet
+        super.cancelQuery(token);
+
+        // Operations waiting for a thread of the pool
+        final ThreadPoolExecutor executor = getExecutor();
+        final Iterator<Runnable> it = executor.getQueue().iterator();
+        while (it.hasNext()) {
+            final Operation operation = (Operation) it.next();
+            if (operation.mOwner == this && operation.mMessage.what == token) {
+                it.remove();
+            }
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+                    new WorkerThreadFactory());
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Receives the operations on the thread shared by all
+     * {@link AsyncQueryHandler}s and immediately hands them over to the pool.
+     * 
+     * @author Cyril Mottier
+     */
+    private class DispatchingHandler extends Handler {
+
+        private final Handler mWorker;
+
+        public DispatchingHandler(Looper looper, Handler worker) {
+            super(looper);
+            mWorker = worker;
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            // The message is recycled as soon as this method returns
+            getExecutor().execute(new Operation(ParallelNotifyingAsyncQueryHandler.this, mWorker, Message.obtain(msg), getTokenPriority(msg.what)));
+        }
+    }
+
+    /**
+     * An operation waiting for a thread of the pool. The worker handler
+     * executes it synchronously on the pool thread and posts the result back
+     * to the handler of the client.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class Operation implements Runnable, Comparable<Operation> {
+
+        private final ParallelNotifyingAsyncQueryHandler mOwner;
+        private final Handler mWorker;
+        private final Message mMessage;
+        private final int mPriority;
+        private final long mSequence;
+
+        public Operation(ParallelNotifyingAsyncQueryHandler owner, Handler worker, Message message, int priority) {
+            mOwner = owner;
+            mWorker = worker;
+            mMessage = message;
+            mPriority = priority;
+            mSequence = sSequence.getAndIncrement();
+        }
+
+        @Override
+        public void run() {
+            mWorker.handleMessage(mMessage);
+            mMessage.recycle();
+        }
+
+        @Override
+        public int compareTo(Operation other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Creates background priority threads, as the worker thread of
+     * {@link AsyncQueryHandler}.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread("ParallelQueryWorker #" + mCount.getAndIncrement()) {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+/**
+ * A case-insensitive prefix index over an array of strings. The index is the
+ * positions of the entries sorted by their normalized (lower case) value:
+ * entries starting with a given prefix are contiguous and found with two
+ * binary searches, that is O(log N) comparisons of at most the length of the
+ * prefix.
+ * <p>
+ * Normalized keys are never stored: characters are folded while comparing.
+ * On top of the entries, the index only costs one int per entry (4 MB for
+ * 1,000,000 entries). Building it sorts the entries in O(N log N) and should
+ * be done in the background. Once built, an index is immutable and may be
+ * searched from any thread.
+ * <p>
+ * A {@link Result} is a range of the index. When the user types one more
+ * character, {@link #refine(Result, CharSequence)} only searches the range of
+ * the previous result.
+ * 
+ * @author Cyril Mottier
+ */
+public class PrefixIndex {
+
+    /**
+     * Ranges smaller than this are sorted with an insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 8;
+
+    private final String[] mEntries;
+    private final int[] mSorted;
+
+    /**
+     * Build the index. This may take a while with large arrays.
+     * 
+     * @param entries The entries to index. The array must not be modified
+     *            afterwards.
+     */
+    public PrefixIndex(String[] entries) {
+        mEntries = entries;
+        mSorted = new int[entries.length];
+        for (int i = 0; i < mSorted.length; i++) {
+            mSorted[i] = i;
+        }
+        sort();
+    }
+
+    /**
+     * Returns the indexed entries.
+     */
+    public String[] getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Returns the number of indexed entries.
+     */
+    public int size() {
+        return mEntries.length;
+    }
+
+    /**
+     * Find the entries starting with the given prefix, ignoring case.
+     * 
+     * @param prefix The prefix
+     * @return The matching entries
+     */
+    public Result search(CharSequence prefix) {
+        return refine(null, prefix);
+    }
+
+    /**
+     * Find the entries starting with the given prefix, ignoring case. When
+     * the prefix extends the prefix of the given result, only that result is
+     * searched.
+     * 
+     * @param previous A previous result of this index or null
+     * @param prefix The prefix
+     * @return The matching entries
+     */
+    public Result refine(Result previous, CharSequence prefix) {
+        int start = 0;
+        int end = mSorted.length;
+        if (previous != null && previous.mIndex == this && startsWith(prefix, previous.mPrefix)) {
+            if (prefix.length() == previous.mPrefix.length()) {
+                return previous;
+            }
+            start = previous.mStart;
+            end = previous.mEnd;
+        }
+
+        start = bound(prefix, start, end, false);
+        end = bound(prefix, start, end, true);
+        return new Result(this, prefix.toString(), start, end);
+    }
+
+    /**
+     * Returns whether the first characters of text are prefix, ignoring case.
+     */
+    public static boolean startsWith(CharSequence text, CharSequence prefix) {
+        final int length = prefix.length();
+        if (text.length() < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (fold(text.charAt(i)) != fold(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first position of [start, end) whose entry is greater than
+     * or equal to the prefix (or strictly greater when upper is true). Entries
+     * are truncated to the length of the prefix before being compared.
+     */
+    private int bound(CharSequence prefix, int start, int end, boolean upper) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = comparePrefix(mEntries[mSorted[mid]], prefix);
+            if (cmp < 0 || (upper && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int comparePrefix(String entry, CharSequence prefix) {
+        final int length = prefix.length();
+        final int entryLength = entry.length();
+        for (int i = 0; i < length; i++) {
+            if (i == entryLength) {
+                return -1;
+            }
+            final char a = fold(entry.charAt(i));
+            final char b = fold(prefix.charAt(i));
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int compare(String a, String b) {
+        final int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            final char ca = fold(a.charAt(i));
+            final char cb = fold(b.charAt(i));
+            if (ca != cb) {
+                return ca < cb ? -1 : 1;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Normalize a character: lower case. Also used by {@link TrigramIndex}.
+     */
+    static char fold(char c) {
+        if (c < 0x80) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * Bottom-up merge sort of the positions. It is stable: equal entries keep
+     * their original order.
+     */
+    private void sort() {
+        final int length = mSorted.length;
+        int[] src = mSorted;
+        int[] dst = new int[length];
+
+        for (int start = 0; start < length; start += INSERTION_SORT_THRESHOLD) {
+            insertionSort(src, start, Math.min(start + INSERTION_SORT_THRESHOLD, length));
+        }
+
+        for (int width = INSERTION_SORT_THRESHOLD; width < length; width *= 2) {
+            for (int start = 0; start < length; start += 2 * width) {
+                final int mid = Math.min(start + width, length);
+                final int end = Math.min(start + 2 * width, length);
+                merge(src, dst, start, mid, end);
+            }
+            final int[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+
+        if (src != mSorted) {
+            System.arraycopy(src, 0, mSorted, 0, length);
+        }
+    }
+
+    private void insertionSort(int[] positions, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            final int position = positions[i];
+            final String entry = mEntries[position];
+            int j = i - 1;
+            while (j >= start && compare(mEntries[positions[j]], entry) > 0) {
+                positions[j + 1] = positions[j];
+                j--;
+            }
+            positions[j + 1] = position;
+        }
+    }
+
+    private void merge(int[] src, int[] dst, int start, int mid, int end) {
+        if (mid >= end || compare(mEntries[src[mid - 1]], mEntries[src[mid]]) <= 0) {
+            // Already in order
+            System.arraycopy(src, start, dst, start, end - start);
+            return;
+        }
+        int i = start;
+        int j = mid;
+        for (int k = start; k < end; k++) {
+            if (j >= end || (i < mid && compare(mEntries[src[i]], mEntries[src[j]]) <= 0)) {
+                dst[k] = src[i++];
+            } else {
+                dst[k] = src[j++];
+            }
+        }
+    }
+
+    /**
+     * The entries starting with a prefix, sorted by their normalized value.
+     * 
+     * @author Cyril Mottier
+     */
+    public static final class Result {
+
+        private final PrefixIndex mIndex;
+        private final String mPrefix;
+        private final int mStart;
+        private final int mEnd;
+
+        private Result(PrefixIndex index, String prefix, int start, int end) {
+            mIndex = index;
+            mPrefix = prefix;
+            mStart = start;
+            mEnd = end;
+        }
+
+        /**
+         * Returns the prefix that has been searched.
+         */
+        public String getPrefix() {
+            return mPrefix;
+        }
+
+        /**
+         * Returns the number of matching entries.
+         */
+        public int getCount() {
+            return mEnd - mStart;
+        }
+
+        /**
+         * Returns the position in the indexed array of the given match.
+         */
+        public int getEntryIndex(int position) {
+            return mIndex.mSorted[mStart + position];
+        }
+
+        /**
+         * Returns the given match.
+         */
+        public String getEntry(int position) {
+            return mIndex.mEntries[mIndex.mSorted[mStart + position]];
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import android.net.Uri;
+
+import com.cyrilmottier.android.listviewtipsandtricks.util.NotifyingAsyncQueryHandler.QueryMetricsSink;
+
+/**
+ * A {@link QueryMetricsSink} aggregating query metrics into histograms.
+ * Values are counted in power-of-two buckets: recording a query is a handful
+ * of array increments and never allocates. Percentiles are estimated as the
+ * upper bound of the bucket they fall in, which is precise enough to spot
+ * regressions.
+ * <p>
+ * A summary of all histograms can be printed at any time with
+ * {@link #dump(PrintWriter)}.
+ * 
+ * @author Cyril Mottier
+ */
+public class QueryMetricsHistogram implements QueryMetricsSink {
+
+    private static final int BUCKET_COUNT = 40;
+
+    private static final int WAIT_TIME = 0;
+    private static final int EXECUTION_TIME = 1;
+    private static final int FILL_TIME = 2;
+    private static final int ROW_COUNT = 3;
+    private static final int DISPATCH_DELAY = 4;
+
+    private static final String[] NAMES = {
+            "wait (us)", "execution (us)", "fill (us)", "rows", "dispatch (us)"
+    };
+
+    private final int[][] mBuckets = new int[NAMES.length][BUCKET_COUNT];
+    private final long[] mMax = new long[NAMES.length];
+    private int mCount;
+
+    @Override
+    public synchronized void onQueryMetrics(int token, Uri uri, long waitTime, long executionTime, long fillTime, int rowCount,
+            long dispatchDelay) {
+        record(WAIT_TIME, waitTime);
+        record(EXECUTION_TIME, executionTime);
+        record(FILL_TIME, fillTime);
+        record(ROW_COUNT, rowCount);
+        record(DISPATCH_DELAY, dispatchDelay);
+        mCount++;
+    }
+
+    private void record(int metric, long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets[metric][bucketFor(value)]++;
+        if (value > mMax[metric]) {
+            mMax[metric] = value;
+        }
+    }
+
+    /**
+     * Bucket i contains the values in [2^(i-1), 2^i). Bucket 0 only contains
+     * 0.
+     */
+    private static int bucketFor(long value) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * Returns the number of recorded queries.
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Forget all recorded queries.
+     */
+    public synchronized void reset() {
+        for (int[] buckets : mBuckets) {
+            Arrays.fill(buckets, 0);
+        }
+        Arrays.fill(mMax, 0);
+        mCount = 0;
+    }
+
+    /**
+     * Print the median, 90th and 99th percentiles and the maximum of each
+     * metric.
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Queries: " + mCount);
+        for (int metric = 0; metric < NAMES.length; metric++) {
+            writer.println("  " + NAMES[metric] + ": p50=" + percentile(metric, 50) + " p90=" + percentile(metric, 90) + " p99="
+                    + percentile(metric, 99) + " max=" + mMax[metric]);
+        }
+    }
+
+    private long percentile(int metric, int percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final int[] buckets = mBuckets[metric];
+        final int rank = (int) Math.ceil(mCount * percent / 100.0);
+        int count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets[i];
+            if (count >= rank) {
+                // Upper bound of the bucket, capped by the actual maximum
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, mMax[metric]);
+            }
+        }
+        return mMax[metric];
+    }
+
+    @Override
+    public String toString() {
+        final StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
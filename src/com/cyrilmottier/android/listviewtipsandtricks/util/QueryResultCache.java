@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+/**
+ * A process-wide cache of query results. Results are stored as immutable
+ * {@link CursorSnapshot}s so that a single entry can be handed to several
+ * clients at the same time. The cache is bounded by the total size of its
+ * snapshots and evicts the least recently used entries first.
+ * <p>
+ * A {@link ContentObserver} is registered for every cached {@link Uri}: any
+ * change notified on a {@link Uri} (or one of its descendants) drops all the
+ * entries queried from it.
+ * <p>
+ * This class is thread-safe. Entries are typically added from the worker
+ * thread of a {@link NotifyingAsyncQueryHandler}.
+ * 
+ * @author Cyril Mottier
+ */
+public class QueryResultCache {
+
+    /**
+     * Default maximum size of the cache in bytes
+     */
+    public static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    private static QueryResultCache sInstance;
+
+    private final ContentResolver mResolver;
+    private final int mMaxSize;
+
+    /**
+     * Entries in access order: the eldest entry is the least recently used
+     * one.
+     */
+    private final LinkedHashMap<Key, CursorSnapshot> mEntries = new LinkedHashMap<Key, CursorSnapshot>(16, 0.75f, true);
+    private final HashMap<Uri, ContentObserver> mObservers = new HashMap<Uri, ContentObserver>();
+
+    private int mSize;
+    private int mVersion;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mInvalidationCount;
+
+    /**
+     * Returns the process-wide {@link QueryResultCache}.
+     */
+    public static synchronized QueryResultCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QueryResultCache(context.getApplicationContext().getContentResolver(), DEFAULT_MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a new {@link QueryResultCache}. Most clients should rather use
+     * the shared instance returned by {@link #getInstance(Context)}.
+     * 
+     * @param resolver The {@link ContentResolver} change notifications are
+     *            observed on
+     * @param maxSize The maximum size of the cache in bytes
+     */
+    public QueryResultCache(ContentResolver resolver, int maxSize) {
+        mResolver = resolver;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the maximum size of the cache in bytes. Results larger than
+     * that are never cached.
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the cached result of the given query or null if there is none.
+     */
+    public synchronized CursorSnapshot get(Key key) {
+        final CursorSnapshot snapshot = mEntries.get(key);
+        if (snapshot != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the current version of the cache. The version changes each time
+     * entries are invalidated. A result obtained from a query started before
+     * an invalidation may be outdated: the version returned before starting
+     * the query must be given to {@link #put(Key, CursorSnapshot, int)}.
+     */
+    public synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Add the result of a query to the cache. The result is ignored if it is
+     * larger than the cache or if the cache has been invalidated since the
+     * given version.
+     * 
+     * @param key The query
+     * @param snapshot The result of the query
+     * @param version The version of the cache when the query was started
+     * @return true if the result has been cached, false otherwise.
+     */
+    public synchronized boolean put(Key key, CursorSnapshot snapshot, int version) {
+        final int size = snapshot.getSizeInBytes();
+        if (version != mVersion || size > mMaxSize) {
+            return false;
+        }
+
+        final CursorSnapshot previous = mEntries.put(key, snapshot);
+        if (previous != null) {
+            mSize -= previous.getSizeInBytes();
+        }
+        mSize += size;
+
+        if (!mObservers.containsKey(key.mUri)) {
+            final ContentObserver observer = new UriObserver(key.mUri);
+            mObservers.put(key.mUri, observer);
+            mResolver.registerContentObserver(key.mUri, true, observer);
+        }
+
+        final Iterator<Map.Entry<Key, CursorSnapshot>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            mSize -= it.next().getValue().getSizeInBytes();
+            it.remove();
+            mEvictionCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Drop all the entries queried from the given {@link Uri}. This is
+     * automatically called when a change is notified on that {@link Uri}.
+     */
+    public synchronized void invalidate(Uri uri) {
+        final Iterator<Map.Entry<Key, CursorSnapshot>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, CursorSnapshot> entry = it.next();
+            if (entry.getKey().mUri.equals(uri)) {
+                mSize -= entry.getValue().getSizeInBytes();
+                it.remove();
+            }
+        }
+        mVersion++;
+        mInvalidationCount++;
+    }
+
+    /**
+     * Drop all entries.
+     */
+    public synchronized void invalidateAll() {
+        mEntries.clear();
+        mSize = 0;
+        mVersion++;
+        mInvalidationCount++;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int getInvalidationCount() {
+        return mInvalidationCount;
+    }
+
+    /**
+     * Invalidates the entries of a single {@link Uri}. Notifications are
+     * received on a binder thread.
+     * 
+     * @author Cyril Mottier
+     */
+    private class UriObserver extends ContentObserver {
+
+        private final Uri mUri;
+
+        public UriObserver(Uri uri) {
+            super(null);
+            mUri = uri;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate(mUri);
+        }
+    }
+
+    /**
+     * Identifies a query: two queries with equal keys return the same result
+     * as long as the underlying data doesn't change.
+     * 
+     * @author Cyril Mottier
+     */
+    public static final class Key {
+
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final int mHashCode;
+
+        public Key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            mUri = uri;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+
+            int hashCode = uri.hashCode();
+            hashCode = 31 * hashCode + Arrays.hashCode(projection);
+            hashCode = 31 * hashCode + (selection == null ? 0 : selection.hashCode());
+            hashCode = 31 * hashCode + Arrays.hashCode(selectionArgs);
+            hashCode = 31 * hashCode + (sortOrder == null ? 0 : sortOrder.hashCode());
+            mHashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mHashCode == other.mHashCode && mUri.equals(other.mUri) && Arrays.equals(mProjection, other.mProjection)
+                    && equals(mSelection, other.mSelection) && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && equals(mSortOrder, other.mSortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        private static boolean equals(String a, String b) {
+            return (a == null) ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * An {@link OnScrollListener} keeping track of the scrolling direction and
+ * velocity of an {@link AbsListView}. Clients use it to determine which items
+ * should be loaded next: the visible items first and then the items ahead of
+ * the viewport in the scrolling direction. The look-ahead grows with the
+ * velocity so that a fling doesn't outrun the loading.
+ * 
+ * @author Cyril Mottier
+ */
+public class ScrollPrefetcher implements OnScrollListener {
+
+    /**
+     * Weight of the last measure in the smoothed velocity
+     */
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final int mMinLookAhead;
+    private final int mLookAheadTime;
+
+    private int mFirstVisiblePosition;
+    private int mLastVisiblePosition = -1;
+    private int mDirection = 1;
+
+    /**
+     * Smoothed velocity in items per second
+     */
+    private float mVelocity;
+    private long mLastScrollTime;
+
+    /**
+     * Creates a new {@link ScrollPrefetcher}.
+     * 
+     * @param minLookAhead The minimum number of items to prefetch after the
+     *            viewport
+     * @param lookAheadTime The look-ahead is extended to the number of items
+     *            scrolled in that number of milliseconds at the current
+     *            velocity
+     */
+    public ScrollPrefetcher(int minLookAhead, int lookAheadTime) {
+        mMinLookAhead = minLookAhead;
+        mLookAheadTime = lookAheadTime;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_IDLE) {
+            mVelocity = 0;
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        final long now = SystemClock.uptimeMillis();
+        final int delta = firstVisibleItem - mFirstVisiblePosition;
+
+        if (delta != 0) {
+            mDirection = delta > 0 ? 1 : -1;
+            final long elapsed = now - mLastScrollTime;
+            if (elapsed > 0) {
+                final float velocity = Math.abs(delta) * 1000f / elapsed;
+                mVelocity = mVelocity * (1 - VELOCITY_SMOOTHING) + velocity * VELOCITY_SMOOTHING;
+            }
+            mLastScrollTime = now;
+        }
+
+        mFirstVisiblePosition = firstVisibleItem;
+        mLastVisiblePosition = firstVisibleItem + visibleItemCount - 1;
+    }
+
+    /**
+     * Returns the scrolling direction: 1 when scrolling towards the end of the
+     * list, -1 otherwise.
+     */
+    public int getDirection() {
+        return mDirection;
+    }
+
+    public int getFirstVisiblePosition() {
+        return mFirstVisiblePosition;
+    }
+
+    public int getLastVisiblePosition() {
+        return mLastVisiblePosition;
+    }
+
+    /**
+     * Returns the number of items that should be loaded ahead of the viewport
+     * in the scrolling direction.
+     */
+    public int getLookAhead() {
+        return Math.max(mMinLookAhead, (int) (mVelocity * mLookAheadTime / 1000));
+    }
+}
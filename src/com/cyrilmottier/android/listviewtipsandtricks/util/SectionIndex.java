@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.Arrays;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * An index of the sections of a {@link Cursor} sorted on a text column. A new
+ * section starts at the first item and each time the first character of the
+ * text differs from the one of the previous item.
+ * <p>
+ * The index is computed in a single sequential pass over the {@link Cursor}
+ * (see {@link #build(Cursor, int, SectionIndex)}) which makes it cheap
+ * enough to be built on a background thread right after a query completes.
+ * Once built, clients never need to move the {@link Cursor} to determine
+ * sections: knowing whether an item starts a section is O(1) and finding the
+ * section of an item is O(log n). An index only keeps the 2-bit cell state of
+ * each item: neither the identifiers nor the texts of the items are retained.
+ * <p>
+ * The index of a data set loaded progressively is updated range by range (see
+ * {@link #addItems(int, SectionIndex, SectionIndex, int, char[], int, char, char)}
+ * ): only the states of the new items and of the item following them are
+ * computed.
+ * <p>
+ * Finally, an index maps the positions of a list displaying section headers as
+ * rows of their own (list positions) to the positions of the items and back.
+ * The header of section s is at list position
+ * {@code getPositionForSection(s) + s} so these mappings are O(log n) too.
+ * 
+ * @author Cyril Mottier
+ */
+public class SectionIndex {
+
+    /**
+     * Initial used for items that have not been loaded yet.
+     */
+    public static final char UNLOADED_INITIAL = '\uffff';
+
+    private static final int INITIAL_SECTION_CAPACITY = 32;
+
+    /**
+     * Initial used for items with an empty text.
+     */
+    private static final char NO_INITIAL = 0;
+
+    private final int mCount;
+    private final CellStateArray mCellStates;
+    private final int[] mSectionPositions;
+    private final int[] mHeaderPositions;
+    private final char[] mSectionLetters;
+    private final String[] mSectionLabels;
+
+    /*
+     * Progressive loading: the number of updates since the first range and
+     * the cells changed by the last update
+     */
+    private final int mGeneration;
+    private final int mUpdateStart;
+    private final int mUpdateEnd;
+
+    private SectionIndex(int count, CellStateArray cellStates, int[] sectionPositions, char[] sectionLetters) {
+        this(count, cellStates, sectionPositions, sectionLetters, 0, 0, count);
+    }
+
+    private SectionIndex(int count, CellStateArray cellStates, int[] sectionPositions, char[] sectionLetters, int generation,
+            int updateStart, int updateEnd) {
+        mCount = count;
+        mCellStates = cellStates;
+        mSectionPositions = sectionPositions;
+        mSectionLetters = sectionLetters;
+        mGeneration = generation;
+        mUpdateStart = updateStart;
+        mUpdateEnd = updateEnd;
+
+        // Derived from the section positions: the map is rebuilt along with
+        // them in O(number of sections).
+        mHeaderPositions = new int[sectionPositions.length];
+        for (int i = 0; i < sectionPositions.length; i++) {
+            mHeaderPositions[i] = sectionPositions[i] + i;
+        }
+
+        // Labels are created here, on the building thread, so that
+        // SectionIndexer.getSections() doesn't have to allocate them.
+        mSectionLabels = new String[sectionLetters.length];
+        for (int i = 0; i < sectionLetters.length; i++) {
+            mSectionLabels[i] = String.valueOf(sectionLetters[i]);
+        }
+    }
+
+    /**
+     * Build a {@link SectionIndex} by iterating over the entire given
+     * {@link Cursor}. As this method moves the {@link Cursor}, it must not be
+     * used concurrently by another thread (typically an adapter).
+     * 
+     * @param cursor The {@link Cursor} to index
+     * @param columnIndex The index of the text column the {@link Cursor} is
+     *            sorted on
+     * @param recycledIndex An index that is not used anymore and whose cell
+     *            states may be reused by the new index. May be null.
+     * @return A new {@link SectionIndex}
+     */
+    public static SectionIndex build(Cursor cursor, int columnIndex, SectionIndex recycledIndex) {
+
+        final int count = cursor.getCount();
+        final CellStateArray cellStates = obtainCellStates(count, recycledIndex);
+        final CharArrayBuffer buffer = new CharArrayBuffer(128);
+
+        int[] positions = new int[INITIAL_SECTION_CAPACITY];
+        char[] letters = new char[INITIAL_SECTION_CAPACITY];
+        int sectionCount = 0;
+        char previousInitial = NO_INITIAL;
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final int position = cursor.getPosition();
+            cursor.copyStringToBuffer(columnIndex, buffer);
+            final char initial = buffer.sizeCopied > 0 ? buffer.data[0] : NO_INITIAL;
+
+            if (isSectionStart(position, previousInitial, initial)) {
+                cellStates.set(position, CellStateArray.STATE_SECTIONED_CELL);
+                if (sectionCount == positions.length) {
+                    positions = grow(positions);
+                    letters = grow(letters);
+                }
+                positions[sectionCount] = position;
+                letters[sectionCount] = getLetter(initial);
+                sectionCount++;
+            } else {
+                cellStates.set(position, CellStateArray.STATE_REGULAR_CELL);
+            }
+            previousInitial = initial;
+        }
+        cursor.moveToPosition(-1);
+
+        return new SectionIndex(count, cellStates, trim(positions, sectionCount), trim(letters, sectionCount));
+    }
+
+    /**
+     * Copy the initial of every item of the given {@link Cursor} into the
+     * given array. As this method moves the {@link Cursor}, it must not be
+     * used concurrently by another thread.
+     * 
+     * @param cursor The {@link Cursor} to read
+     * @param columnIndex The index of the text column the {@link Cursor} is
+     *            sorted on
+     * @param initials The array receiving the initials
+     * @param offset The position in the array of the first item of the
+     *            {@link Cursor}
+     */
+    public static void readInitials(Cursor cursor, int columnIndex, char[] initials, int offset) {
+
+        final CharArrayBuffer buffer = new CharArrayBuffer(128);
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            cursor.copyStringToBuffer(columnIndex, buffer);
+            initials[offset + cursor.getPosition()] = buffer.sizeCopied > 0 ? buffer.data[0] : NO_INITIAL;
+        }
+        cursor.moveToPosition(-1);
+    }
+
+    /**
+     * Build the index of a partially loaded data set right after a range of
+     * items has been loaded. Items that are not loaded yet have an unknown
+     * cell state, as well as the item following them. This method runs in
+     * O(k + s) where k is the number of loaded items and s the number of
+     * sections: the rest of the data set is not scanned.
+     * <p>
+     * The new index never shares its storage with previousIndex so that
+     * previousIndex can still be read by the UI thread meanwhile. Successive
+     * updates are expected to alternate between two indexes: the one
+     * replaced by previousIndex is given back as recycledIndex and only the
+     * cells changed by the last update are copied into it.
+     * 
+     * @param count The number of items of the data set
+     * @param previousIndex The index before the range was loaded or null if
+     *            no item was loaded yet. Only read.
+     * @param recycledIndex An index that is not used anymore and whose
+     *            storage may be reused by the new index. Must not be
+     *            previousIndex. May be null.
+     * @param start The position of the first loaded item
+     * @param initials The initials of the loaded items, as read by
+     *            {@link #readInitials(Cursor, int, char[], int)}. The array
+     *            is not retained.
+     * @param initialCount The number of loaded items
+     * @param previousInitial The initial of the item at start - 1 or
+     *            {@link #UNLOADED_INITIAL} if it is not loaded
+     * @param nextInitial The initial of the item at start + initialCount or
+     *            {@link #UNLOADED_INITIAL} if it is not loaded
+     * @return A new {@link SectionIndex}
+     */
+    public static SectionIndex addItems(int count, SectionIndex previousIndex, SectionIndex recycledIndex, int start, char[] initials,
+            int initialCount, char previousInitial, char nextInitial) {
+
+        final CellStateArray cellStates;
+        if (previousIndex == null) {
+            cellStates = obtainCellStates(count, recycledIndex);
+        } else if (recycledIndex != null && recycledIndex.mCount == count && recycledIndex.mGeneration == previousIndex.mGeneration - 1) {
+            // The recycled index is the one previousIndex has been built
+            // from: it only misses the last update
+            cellStates = recycledIndex.mCellStates;
+            cellStates.copy(previousIndex.mCellStates, previousIndex.mUpdateStart, previousIndex.mUpdateEnd);
+        } else {
+            cellStates = (recycledIndex != null) ? recycledIndex.mCellStates : new CellStateArray(count);
+            cellStates.copy(previousIndex.mCellStates);
+        }
+
+        // The loaded items and the item following them were unknown so far:
+        // the sections they start are merged into the previous ones.
+        final int end = Math.min(count, start + initialCount + (nextInitial != UNLOADED_INITIAL ? 1 : 0));
+        int[] positions = new int[INITIAL_SECTION_CAPACITY];
+        char[] letters = new char[INITIAL_SECTION_CAPACITY];
+        int sectionCount = 0;
+
+        for (int position = start; position < end; position++) {
+            final int i = position - start;
+            final char previous = (i == 0) ? previousInitial : initials[i - 1];
+            final char initial = (i < initialCount) ? initials[i] : nextInitial;
+            if (position > 0 && previous == UNLOADED_INITIAL) {
+                // Can't be determined until the missing item is loaded
+                continue;
+            }
+
+            if (isSectionStart(position, previous, initial)) {
+                cellStates.set(position, CellStateArray.STATE_SECTIONED_CELL);
+                if (sectionCount == positions.length) {
+                    positions = grow(positions);
+                    letters = grow(letters);
+                }
+                positions[sectionCount] = position;
+                letters[sectionCount] = getLetter(initial);
+                sectionCount++;
+            } else {
+                cellStates.set(position, CellStateArray.STATE_REGULAR_CELL);
+            }
+        }
+
+        final int[] previousPositions = (previousIndex == null) ? new int[0] : previousIndex.mSectionPositions;
+        final char[] previousLetters = (previousIndex == null) ? new char[0] : previousIndex.mSectionLetters;
+        final int before = lowerBound(previousPositions, start);
+        final int after = lowerBound(previousPositions, end);
+
+        final int mergedCount = before + sectionCount + previousPositions.length - after;
+        final int[] mergedPositions = new int[mergedCount];
+        final char[] mergedLetters = new char[mergedCount];
+        System.arraycopy(previousPositions, 0, mergedPositions, 0, before);
+        System.arraycopy(previousLetters, 0, mergedLetters, 0, before);
+        System.arraycopy(positions, 0, mergedPositions, before, sectionCount);
+        System.arraycopy(letters, 0, mergedLetters, before, sectionCount);
+        System.arraycopy(previousPositions, after, mergedPositions, before + sectionCount, previousPositions.length - after);
+        System.arraycopy(previousLetters, after, mergedLetters, before + sectionCount, previousPositions.length - after);
+
+        final int generation = (previousIndex == null) ? 0 : previousIndex.mGeneration + 1;
+        return new SectionIndex(count, cellStates, mergedPositions, mergedLetters, generation, start, end);
+    }
+
+    /**
+     * Returns the index of the first value of the given sorted array that is
+     * greater than or equal to the given value.
+     */
+    private static int lowerBound(int[] array, int value) {
+        final int index = Arrays.binarySearch(array, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static CellStateArray obtainCellStates(int count, SectionIndex recycledIndex) {
+        if (recycledIndex != null) {
+            final CellStateArray cellStates = recycledIndex.mCellStates;
+            cellStates.resize(count);
+            return cellStates;
+        }
+        return new CellStateArray(count);
+    }
+
+    /**
+     * Same rule as the one historically used by the adapter: the first item
+     * always starts a section and an empty text never does.
+     */
+    private static boolean isSectionStart(int position, char previousInitial, char initial) {
+        if (position == 0) {
+            return true;
+        }
+        return previousInitial != NO_INITIAL && initial != NO_INITIAL && previousInitial != initial;
+    }
+
+    private static char getLetter(char initial) {
+        return initial != NO_INITIAL ? initial : ' ';
+    }
+
+    /**
+     * Returns the number of items this index has been built for.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of sections.
+     */
+    public int getSectionCount() {
+        return mSectionPositions.length;
+    }
+
+    /**
+     * Returns whether the item at the given position is the first item of a
+     * section. This method runs in constant time.
+     * 
+     * @param position The position of the item
+     * @return true if the item starts a section, false otherwise.
+     */
+    public boolean isSectionStart(int position) {
+        return mCellStates.get(position) == CellStateArray.STATE_SECTIONED_CELL;
+    }
+
+    /**
+     * Returns the section the item at the given position belongs to. This
+     * method runs in O(log n) where n is the number of sections.
+     * 
+     * @param position The position of the item
+     * @return The index of the section or -1 if there is no section.
+     */
+    public int getSectionForPosition(int position) {
+        final int index = Arrays.binarySearch(mSectionPositions, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns the position of the first item of the given section.
+     * 
+     * @param section The index of the section
+     * @return The position of the first item of that section
+     */
+    public int getPositionForSection(int section) {
+        return mSectionPositions[section];
+    }
+
+    /**
+     * Returns the number of rows of a list displaying the headers of the
+     * sections as rows: the number of items plus the number of sections.
+     */
+    public int getListCount() {
+        return mCount + mHeaderPositions.length;
+    }
+
+    /**
+     * Returns whether the given list position is the one of a section header.
+     * 
+     * @param listPosition A position in a list displaying headers as rows
+     * @return true if the row is a section header, false otherwise.
+     */
+    public boolean isHeaderPosition(int listPosition) {
+        return Arrays.binarySearch(mHeaderPositions, listPosition) >= 0;
+    }
+
+    /**
+     * Returns the section the given list position belongs to. This method
+     * runs in O(log n) where n is the number of sections.
+     * 
+     * @param listPosition A position in a list displaying headers as rows
+     * @return The index of the section or -1 if there is no section.
+     */
+    public int getSectionForListPosition(int listPosition) {
+        final int index = Arrays.binarySearch(mHeaderPositions, listPosition);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns the list position of the header of the given section.
+     * 
+     * @param section The index of the section
+     * @return The position of the header in a list displaying headers as rows
+     */
+    public int getListPositionForSection(int section) {
+        return mHeaderPositions[section];
+    }
+
+    /**
+     * Converts a list position to the position of an item. This method runs
+     * in O(log n) where n is the number of sections.
+     * 
+     * @param listPosition A position in a list displaying headers as rows
+     * @return The position of the item or -1 if listPosition is the one of a
+     *         section header.
+     */
+    public int getItemPosition(int listPosition) {
+        final int index = Arrays.binarySearch(mHeaderPositions, listPosition);
+        if (index >= 0) {
+            return -1;
+        }
+        // Items before the first header (sections unknown yet in a partially
+        // loaded data set) are not shifted.
+        return listPosition - (-index - 1);
+    }
+
+    /**
+     * Converts the position of an item to a list position.
+     * 
+     * @param position The position of the item
+     * @return The position of the item in a list displaying headers as rows
+     */
+    public int getListPosition(int position) {
+        return position + getSectionForPosition(position) + 1;
+    }
+
+    /**
+     * Returns the letter of the given section.
+     * 
+     * @param section The index of the section
+     * @return The first character of the first item of that section
+     */
+    public char getSectionLetter(int section) {
+        return mSectionLetters[section];
+    }
+
+    /**
+     * Returns the labels of all sections, suitable for
+     * {@link android.widget.SectionIndexer#getSections()}.
+     */
+    public String[] getSectionLabels() {
+        return mSectionLabels;
+    }
+
+    private static int[] grow(int[] array) {
+        final int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static char[] grow(char[] array) {
+        final char[] newArray = new char[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        final int[] newArray = new int[length];
+        System.arraycopy(array, 0, newArray, 0, length);
+        return newArray;
+    }
+
+    private static char[] trim(char[] array, int length) {
+        final char[] newArray = new char[length];
+        System.arraycopy(array, 0, newArray, 0, length);
+        return newArray;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.widget.TextView;
+
+/**
+ * A read-only array of strings packed in a single UTF-16 blob and an offsets
+ * table (see {@link StringPoolWriter} for the format). Pools are generated at
+ * build time and shipped as assets. Opening a pool maps the asset in memory:
+ * nothing is read nor allocated on the Java heap whatever the number of
+ * strings, and pages are only loaded by the kernel when accessed.
+ * <p>
+ * Mapping requires the asset to be stored uncompressed in the APK: aapt
+ * doesn't compress some extensions such as ".jet". Compressed assets are read
+ * into memory instead.
+ * <p>
+ * Strings are never materialized: {@link #get(int)} returns a view on the
+ * blob and {@link #getChars(int, char[], int)} copies the characters into a
+ * buffer that may be given to {@link TextView#setText(char[], int, int)}. A
+ * pool may be read from any thread.
+ * 
+ * @author Cyril Mottier
+ */
+public class StringPool {
+
+    private final IntBuffer mOffsets;
+    private final CharBuffer mChars;
+    private final int mSize;
+    private final int mMaxLength;
+
+    private StringPool(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != StringPoolWriter.MAGIC || buffer.getInt(4) != StringPoolWriter.VERSION) {
+            throw new IOException("Not a string pool");
+        }
+        mSize = buffer.getInt(8);
+
+        buffer.position(StringPoolWriter.HEADER_SIZE);
+        mOffsets = buffer.slice().asIntBuffer();
+        mOffsets.limit(mSize + 1);
+
+        buffer.position(StringPoolWriter.HEADER_SIZE + 4 * (mSize + 1));
+        mChars = buffer.slice().asCharBuffer();
+        mChars.limit(mOffsets.get(mSize));
+
+        int maxLength = 0;
+        for (int i = 0; i < mSize; i++) {
+            maxLength = Math.max(maxLength, mOffsets.get(i + 1) - mOffsets.get(i));
+        }
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * Open a pool shipped as an asset.
+     * 
+     * @param assets The {@link AssetManager} of the application
+     * @param fileName The name of the asset
+     * @return The pool
+     * @throws IOException If the asset can't be read or is not a pool
+     */
+    public static StringPool open(AssetManager assets, String fileName) throws IOException {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = assets.openFd(fileName);
+        } catch (FileNotFoundException e) {
+            // Compressed: there is no file to map
+        }
+
+        if (afd == null) {
+            final InputStream in = assets.open(fileName);
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                return new StringPool(ByteBuffer.wrap(out.toByteArray()));
+            } finally {
+                in.close();
+            }
+        }
+
+        // The descriptor is the whole APK: map the asset range only. The
+        // mapping stays valid once the descriptor is closed.
+        final FileInputStream in = afd.createInputStream();
+        try {
+            final FileChannel channel = in.getChannel();
+            return new StringPool(channel.map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of strings.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the length of the longest string. A buffer of that length may
+     * hold any string of the pool.
+     */
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * Returns the length of the given string.
+     */
+    public int length(int index) {
+        return mOffsets.get(index + 1) - mOffsets.get(index);
+    }
+
+    /**
+     * Returns the given string as a view on the pool. No character is
+     * copied.
+     */
+    public CharSequence get(int index) {
+        final int start = mOffsets.get(index);
+        return mChars.subSequence(start, mOffsets.get(index + 1));
+    }
+
+    /**
+     * Copy the given string into a buffer.
+     * 
+     * @param index The index of the string
+     * @param dst The buffer. It must be large enough.
+     * @param dstOffset The position of the first character in dst
+     * @return The length of the string
+     */
+    public int getChars(int index, char[] dst, int dstOffset) {
+        final int start = mOffsets.get(index);
+        final int length = mOffsets.get(index + 1) - start;
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = mChars.get(start + i);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the packed format read by {@link StringPool}. This class doesn't
+ * depend on Android: it is used at build time to generate the pools shipped
+ * as assets. All values are big endian:
+ * 
+ * <pre>
+ * int     magic ({@link #MAGIC})
+ * int     version ({@link #VERSION})
+ * int     count
+ * int     offsets[count + 1]  (in chars, string i is chars[offsets[i]] to chars[offsets[i + 1] - 1])
+ * char    chars[offsets[count]]  (UTF-16)
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class StringPoolWriter {
+
+    /**
+     * "SPOL"
+     */
+    public static final int MAGIC = 0x53504F4C;
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header (magic, version and count) in bytes
+     */
+    public static final int HEADER_SIZE = 12;
+
+    private StringPoolWriter() {
+    }
+
+    /**
+     * Write the given strings. The stream is not closed.
+     * 
+     * @param strings The strings to pack
+     * @param out The stream to write to
+     * @throws IOException If the stream can't be written
+     */
+    public static void write(String[] strings, OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(strings.length);
+
+        int offset = 0;
+        data.writeInt(offset);
+        for (String string : strings) {
+            offset += string.length();
+            data.writeInt(offset);
+        }
+        for (String string : strings) {
+            data.writeChars(string);
+        }
+        data.flush();
+    }
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.util;
+
+import java.util.Arrays;
+
+/**
+ * A trigram inverted index over an array of strings answering substring and
+ * typo-tolerant queries, ignoring case. Every entry is cut into the sequences
+ * of three consecutive characters it contains (its trigrams) and each
+ * trigram lists the entries containing it. A query is cut the same way and
+ * the entries sharing enough trigrams with it are ranked:
+ * <ol>
+ * <li>entries containing the query at the start of a word,</li>
+ * <li>entries containing the query anywhere,</li>
+ * <li>entries sharing the most trigrams with the query. A typo changes at
+ * most 3 trigrams: an entry is kept when it misses no more than 3 trigrams of
+ * the query per allowed typo.</li>
+ * </ol>
+ * Ties are broken by length (shorter entries first) and then by position.
+ * <p>
+ * Letters and digits are encoded on 6 bits, anything else is a word
+ * separator. A trigram is thus an int below 2^18 and the posting lists are
+ * stored in a single byte array, indexed by trigram. Each list is cut into
+ * blocks of {@link #BLOCK_SIZE} entries: an entry is stored as a varint of its
+ * difference with the previous one and each block starts with its last
+ * entry so that probes skip whole blocks. With the cheese names, that is
+ * about 1.5 bytes per distinct trigram of each entry (about 12 per name)
+ * plus 1 MB. Building it is linear, needs 3 more MB while running and should
+ * be done in the background. Once built, an index is immutable and may be
+ * searched from any thread.
+ * <p>
+ * Queries shorter than 3 characters have no trigram: all entries are
+ * scanned.
+ * 
+ * @author Cyril Mottier
+ */
+public class TrigramIndex {
+
+    private static final int CODE_BITS = 6;
+    private static final int SEPARATOR = 0;
+    private static final int TRIGRAM_COUNT = 1 << (3 * CODE_BITS);
+
+    /**
+     * The number of trigrams a single typo may change
+     */
+    private static final int TRIGRAMS_PER_TYPO = 3;
+
+    private static final int RANK_SUBSTRING = 2;
+    private static final int RANK_WORD_START = 3;
+
+    /**
+     * The number of entries of a block of a posting list
+     */
+    private static final int BLOCK_SIZE = 32;
+
+    /**
+     * A block header: its last entry on 4 bytes and the length of its
+     * entries on 1 byte (at most 5 bytes per varint)
+     */
+    private static final int HEADER_SIZE = 5;
+
+    private final String[] mEntries;
+
+    /**
+     * The blocks of the entries containing trigram t are stored from
+     * mPostings[mOffsets[t]] to mPostings[mOffsets[t + 1] - 1], in
+     * increasing order.
+     */
+    private final int[] mOffsets;
+    private final byte[] mPostings;
+
+    /**
+     * Build the index. This may take a while with large arrays.
+     * 
+     * @param entries The entries to index. The array must not be modified
+     *            afterwards.
+     */
+    public TrigramIndex(String[] entries) {
+        mEntries = entries;
+
+        int maxLength = 0;
+        for (String entry : entries) {
+            maxLength = Math.max(maxLength, entry.length());
+        }
+        final int[] codes = new int[maxLength + 2];
+        final int[] trigrams = new int[maxLength + 2];
+
+        // The last entry added to each list and the number of entries of
+        // its current block
+        final int[] lastEntries = new int[TRIGRAM_COUNT];
+        final byte[] blockCounts = new byte[TRIGRAM_COUNT];
+
+        // First pass: size the posting lists
+        mOffsets = new int[TRIGRAM_COUNT + 1];
+        Arrays.fill(lastEntries, -1);
+        for (int e = 0; e < entries.length; e++) {
+            final int count = extract(entries[e], true, codes, trigrams);
+            for (int i = 0; i < count; i++) {
+                final int t = trigrams[i];
+                if (blockCounts[t] == 0) {
+                    mOffsets[t + 1] += HEADER_SIZE;
+                }
+                blockCounts[t] = (byte) ((blockCounts[t] + 1) % BLOCK_SIZE);
+                mOffsets[t + 1] += getVarintSize(e - lastEntries[t]);
+                lastEntries[t] = e;
+            }
+        }
+        for (int t = 0; t < TRIGRAM_COUNT; t++) {
+            mOffsets[t + 1] += mOffsets[t];
+        }
+
+        // Second pass: fill them. Entries are added in order so that lists
+        // are sorted. The header of the current block is rewritten with each
+        // entry.
+        mPostings = new byte[mOffsets[TRIGRAM_COUNT]];
+        final int[] next = new int[TRIGRAM_COUNT];
+        final int[] headers = new int[TRIGRAM_COUNT];
+        System.arraycopy(mOffsets, 0, next, 0, TRIGRAM_COUNT);
+        Arrays.fill(lastEntries, -1);
+        Arrays.fill(blockCounts, (byte) 0);
+        for (int e = 0; e < entries.length; e++) {
+            final int count = extract(entries[e], true, codes, trigrams);
+            for (int i = 0; i < count; i++) {
+                final int t = trigrams[i];
+                if (blockCounts[t] == 0) {
+                    headers[t] = next[t];
+                    next[t] += HEADER_SIZE;
+                }
+                blockCounts[t] = (byte) ((blockCounts[t] + 1) % BLOCK_SIZE);
+                next[t] = writeVarint(mPostings, next[t], e - lastEntries[t]);
+                lastEntries[t] = e;
+                writeHeader(mPostings, headers[t], e, next[t] - headers[t] - HEADER_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Returns the indexed entries.
+     */
+    public String[] getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Returns the number of indexed entries.
+     */
+    public int size() {
+        return mEntries.length;
+    }
+
+    /**
+     * Returns the size of the index in bytes, offsets table included.
+     */
+    public int getSizeInBytes() {
+        return mPostings.length + mOffsets.length * 4;
+    }
+
+    /**
+     * Find the entries matching the query.
+     * 
+     * @param query The query
+     * @param maxTypos The number of typos tolerated. With 0, only the entries
+     *            containing the query are returned.
+     * @param limit The maximum number of entries to return
+     * @return The positions in the indexed array of the best matching
+     *         entries, best first
+     */
+    public int[] search(CharSequence query, int maxTypos, int limit) {
+        final String folded = fold(query);
+        final int[] codes = new int[folded.length() + 2];
+        final int[] trigrams = new int[folded.length() + 2];
+        final int trigramCount = extract(folded, false, codes, trigrams);
+
+        final Ranking ranking = new Ranking(limit);
+        if (trigramCount == 0) {
+            scan(folded, ranking);
+        } else {
+            merge(folded, trigrams, trigramCount, maxTypos, ranking);
+        }
+        return ranking.getEntries();
+    }
+
+    /**
+     * Count, for each candidate entry, the number of query trigram lists it
+     * appears in. An entry appearing in minMatches of the n lists appears in
+     * at least one of the n - minMatches + 1 shortest lists: candidates are
+     * taken from these lists by merging them and the longer lists are only
+     * probed, skipping the blocks that can't contain the probed entry. For
+     * exact queries, the shortest list is walked and the other ones are
+     * probed.
+     */
+    private void merge(String query, int[] trigrams, int trigramCount, int maxTypos, Ranking ranking) {
+        final int minMatches = Math.max(1, trigramCount - TRIGRAMS_PER_TYPO * maxTypos);
+
+        // Lists sorted by length in bytes
+        final PostingList[] lists = new PostingList[trigramCount];
+        for (int i = 0; i < trigramCount; i++) {
+            final PostingList list = new PostingList(mPostings, mOffsets[trigrams[i]], mOffsets[trigrams[i] + 1]);
+            int j = i;
+            while (j > 0 && lists[j - 1].getLength() > list.getLength()) {
+                lists[j] = lists[j - 1];
+                j--;
+            }
+            lists[j] = list;
+        }
+
+        final int shortCount = trigramCount - minMatches + 1;
+        int activeCount = 0;
+        for (int i = 0; i < shortCount; i++) {
+            if (lists[i].getEntry() != PostingList.END) {
+                lists[activeCount++] = lists[i];
+            }
+        }
+
+        while (activeCount > 0) {
+            int entry = Integer.MAX_VALUE;
+            for (int i = 0; i < activeCount; i++) {
+                entry = Math.min(entry, lists[i].getEntry());
+            }
+
+            int matches = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (lists[i].getEntry() == entry) {
+                    matches++;
+                    if (!lists[i].next()) {
+                        // Exhausted list: replace it with the last active one
+                        activeCount--;
+                        lists[i] = lists[activeCount];
+                        i--;
+                    }
+                }
+            }
+
+            for (int i = shortCount; i < trigramCount && matches + trigramCount - i >= minMatches; i++) {
+                if (lists[i].skipTo(entry) == entry) {
+                    matches++;
+                }
+            }
+
+            if (matches >= minMatches) {
+                // Containing the query requires containing all its trigrams
+                final int rank = (matches == trigramCount) ? substringRank(mEntries[entry], query) : 0;
+                if (rank != 0 || maxTypos > 0) {
+                    ranking.offer(entry, rank, matches, mEntries[entry].length());
+                }
+            }
+        }
+    }
+
+    private static int getVarintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Write value 7 bits at a time, lowest bits first. The highest bit of
+     * each byte tells whether more bytes follow.
+     * 
+     * @return The position following the varint
+     */
+    private static int writeVarint(byte[] data, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    private static void writeHeader(byte[] data, int position, int lastEntry, int length) {
+        data[position] = (byte) (lastEntry >>> 24);
+        data[position + 1] = (byte) (lastEntry >>> 16);
+        data[position + 2] = (byte) (lastEntry >>> 8);
+        data[position + 3] = (byte) lastEntry;
+        data[position + 4] = (byte) length;
+    }
+
+    private void scan(String query, Ranking ranking) {
+        if (query.length() == 0) {
+            return;
+        }
+        final String[] entries = mEntries;
+        for (int e = 0; e < entries.length; e++) {
+            final int rank = substringRank(entries[e], query);
+            if (rank != 0) {
+                ranking.offer(e, rank, 0, entries[e].length());
+            }
+        }
+    }
+
+    /**
+     * Returns {@link #RANK_WORD_START} if the entry contains the query at the
+     * start of a word, {@link #RANK_SUBSTRING} if it contains it elsewhere and
+     * 0 otherwise.
+     */
+    private static int substringRank(String entry, String query) {
+        final int length = query.length();
+        final int last = entry.length() - length;
+        int rank = 0;
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < length && PrefixIndex.fold(entry.charAt(i + j)) == query.charAt(j)) {
+                j++;
+            }
+            if (j == length) {
+                if (i == 0 || code(entry.charAt(i - 1)) == SEPARATOR) {
+                    return RANK_WORD_START;
+                }
+                rank = RANK_SUBSTRING;
+            }
+        }
+        return rank;
+    }
+
+    private static String fold(CharSequence text) {
+        final int length = text.length();
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = PrefixIndex.fold(text.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    private static int code(char c) {
+        c = PrefixIndex.fold(c);
+        if (c >= 'a' && c <= 'z') {
+            return 1 + c - 'a';
+        }
+        if (c >= '0' && c <= '9') {
+            return 27 + c - '0';
+        }
+        if (c < 0x80 || !Character.isLetterOrDigit(c)) {
+            return SEPARATOR;
+        }
+        // Other letters share the remaining codes
+        return 37 + c % 27;
+    }
+
+    /**
+     * Encode text and list its distinct trigrams. Runs of separators count as
+     * a single one. Entries are padded with a separator on both sides so that
+     * word starts and ends have trigrams of their own.
+     * 
+     * @return The number of trigrams, sorted at the start of trigrams
+     */
+    private static int extract(CharSequence text, boolean pad, int[] codes, int[] trigrams) {
+        int codeCount = 0;
+        if (pad) {
+            codes[codeCount++] = SEPARATOR;
+        }
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final int code = code(text.charAt(i));
+            if (code != SEPARATOR || codeCount == 0 || codes[codeCount - 1] != SEPARATOR) {
+                codes[codeCount++] = code;
+            }
+        }
+        if (pad && codes[codeCount - 1] != SEPARATOR) {
+            codes[codeCount++] = SEPARATOR;
+        }
+
+        int count = 0;
+        for (int i = 2; i < codeCount; i++) {
+            trigrams[count++] = (codes[i - 2] << (2 * CODE_BITS)) | (codes[i - 1] << CODE_BITS) | codes[i];
+        }
+        if (count > 1) {
+            Arrays.sort(trigrams, 0, count);
+            int distinct = 1;
+            for (int i = 1; i < count; i++) {
+                if (trigrams[i] != trigrams[distinct - 1]) {
+                    trigrams[distinct++] = trigrams[i];
+                }
+            }
+            count = distinct;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes a posting list. Entries are read one after the other and blocks
+     * whose last entry is lower than a probed entry are skipped without being
+     * decoded.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class PostingList {
+
+        /**
+         * The entry of an exhausted list
+         */
+        public static final int END = Integer.MAX_VALUE;
+
+        private final byte[] mData;
+        private final int mStart;
+        private final int mEnd;
+        private int mPosition;
+        private int mBlockEnd;
+        private int mEntry = -1;
+
+        public PostingList(byte[] data, int start, int end) {
+            mData = data;
+            mStart = start;
+            mEnd = end;
+            mPosition = start;
+            mBlockEnd = start;
+            next();
+        }
+
+        /**
+         * Returns the length of the list in bytes.
+         */
+        public int getLength() {
+            return mEnd - mStart;
+        }
+
+        /**
+         * Returns the current entry or {@link #END}.
+         */
+        public int getEntry() {
+            return mEntry;
+        }
+
+        /**
+         * Move to the next entry.
+         * 
+         * @return false if the list is exhausted
+         */
+        public boolean next() {
+            final byte[] data = mData;
+            if (mPosition == mBlockEnd) {
+                if (mPosition == mEnd) {
+                    mEntry = END;
+                    return false;
+                }
+                mBlockEnd = mPosition + HEADER_SIZE + (data[mPosition + 4] & 0xFF);
+                mPosition += HEADER_SIZE;
+            }
+
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[mPosition++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            mEntry += delta;
+            return true;
+        }
+
+        /**
+         * Move to the first entry greater than or equal to entry.
+         * 
+         * @return The new current entry or {@link #END}
+         */
+        public int skipTo(int entry) {
+            final byte[] data = mData;
+            while (mEntry < entry) {
+                if (mPosition == mBlockEnd) {
+                    int position = mPosition;
+                    while (position < mEnd) {
+                        final int lastEntry = (data[position] << 24) | ((data[position + 1] & 0xFF) << 16)
+                                | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+                        if (lastEntry >= entry) {
+                            break;
+                        }
+                        // The next block is decoded from the last entry of
+                        // the skipped one
+                        mEntry = lastEntry;
+                        position += HEADER_SIZE + (data[position + 4] & 0xFF);
+                    }
+                    mPosition = position;
+                    mBlockEnd = position;
+                }
+                if (!next()) {
+                    break;
+                }
+            }
+            return mEntry;
+        }
+    }
+
+    /**
+     * Keeps the best entries offered in a min-heap. Each entry is packed in a
+     * long whose natural order is the ranking order.
+     * 
+     * @author Cyril Mottier
+     */
+    private static class Ranking {
+
+        private final long[] mHeap;
+        private int mSize;
+
+        public Ranking(int limit) {
+            mHeap = new long[limit];
+        }
+
+        public void offer(int entry, int rank, int matches, int length) {
+            final long score = (rank << 26) | (Math.min(matches, 0x3FF) << 16) | (0xFFFF - Math.min(length, 0xFFFF));
+            // Lower positions first: the complement of the position
+            final long key = (score << 32) | (~entry & 0xFFFFFFFFL);
+
+            if (mSize < mHeap.length) {
+                int i = mSize++;
+                while (i > 0 && mHeap[(i - 1) / 2] > key) {
+                    mHeap[i] = mHeap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                mHeap[i] = key;
+            } else if (mSize > 0 && key > mHeap[0]) {
+                siftDown(key);
+            }
+        }
+
+        private void siftDown(long key) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize && mHeap[child + 1] < mHeap[child]) {
+                    child++;
+                }
+                if (mHeap[child] >= key) {
+                    break;
+                }
+                mHeap[i] = mHeap[child];
+                i = child;
+            }
+            mHeap[i] = key;
+        }
+
+        public int[] getEntries() {
+            final long[] keys = new long[mSize];
+            System.arraycopy(mHeap, 0, keys, 0, mSize);
+            Arrays.sort(keys);
+            final int[] entries = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                entries[i] = ~(int) keys[mSize - 1 - i];
+            }
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.widget;
+
+import android.os.AsyncTask;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+
+import com.cyrilmottier.android.listviewtipsandtricks.R;
+import com.cyrilmottier.android.listviewtipsandtricks.util.ArrayDiff;
+
+/**
+ * An adapter over an array whose data can be replaced without rebinding the
+ * rows that didn't change. {@link #changeData(Object[], ListView)} diffs the
+ * old and new arrays in the background ({@link ArrayDiff}) and then:
+ * <ul>
+ * <li>items present in both arrays keep their id: ids are stable and a row
+ * is only bound again when the id it displays changes,</li>
+ * <li>when items have only been replaced in place, the visible rows showing
+ * a replaced item are rebound in place and the {@link ListView} doesn't lay
+ * out anything,</li>
+ * <li>otherwise the {@link ListView} is notified and scrolled so that the
+ * first visible item that still exists stays where it was.</li>
+ * </ul>
+ * Subclasses create row views in {@link #newView(int, ViewGroup)} and bind
+ * them in {@link #bindView(View, int, Object)}. A row must only depend on its
+ * item, not on its position.
+ * 
+ * @author Cyril Mottier
+ */
+public abstract class DiffingArrayAdapter<T> extends BaseAdapter {
+
+    /**
+     * Above that number of insertions and deletions, the arrays are
+     * considered completely different and all rows are rebound.
+     */
+    public static final int DEFAULT_MAX_EDITS = 1000;
+
+    private T[] mData;
+    private long[] mIds;
+    private long mNextId;
+    private DiffTask mDiffTask;
+
+    private int mBindCount;
+
+    public DiffingArrayAdapter(T[] data) {
+        mData = data;
+        mIds = new long[data.length];
+        for (int i = 0; i < mIds.length; i++) {
+            mIds[i] = mNextId++;
+        }
+    }
+
+    /**
+     * Replace the data of this adapter once it has been diffed with the
+     * current data. Data given by a previous call and not applied yet is
+     * dropped.
+     * 
+     * @param data The new data. It must not be modified afterwards.
+     * @param listView The {@link ListView} displaying this adapter, used to
+     *            rebind rows in place and to keep the scroll position. May
+     *            be null.
+     */
+    public void changeData(T[] data, ListView listView) {
+        cancelChangeData();
+        mDiffTask = new DiffTask(mData, data, listView);
+        mDiffTask.execute();
+    }
+
+    /**
+     * Cancel the pending change of data, if any.
+     */
+    public void cancelChangeData() {
+        if (mDiffTask != null) {
+            mDiffTask.cancel(false);
+            mDiffTask = null;
+        }
+    }
+
+    /**
+     * Returns the data currently displayed. It must not be modified.
+     */
+    public T[] getData() {
+        return mData;
+    }
+
+    /**
+     * Returns the number of rows bound since this adapter has been created.
+     */
+    public int getBindCount() {
+        return mBindCount;
+    }
+
+    /**
+     * Called once new data has been applied.
+     * 
+     * @param diffTime The time spent diffing the data in the background, in
+     *            nanoseconds
+     * @param changedCount The number of items that were not in the previous
+     *            data
+     */
+    protected void onDataChanged(long diffTime, int changedCount) {
+    }
+
+    @Override
+    public int getCount() {
+        return mData.length;
+    }
+
+    @Override
+    public T getItem(int position) {
+        return mData[position];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mIds[position];
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        final View view = (convertView != null) ? convertView : newView(position, parent);
+
+        // The id of the item displayed by the view. An id always stands for
+        // the same content.
+        long[] boundId = (long[]) view.getTag(R.id.bound_item_id);
+        if (boundId == null) {
+            boundId = new long[] {
+                AdapterView.INVALID_ROW_ID
+            };
+            view.setTag(R.id.bound_item_id, boundId);
+        }
+
+        final long id = mIds[position];
+        if (boundId[0] != id) {
+            bindView(view, position, mData[position]);
+            boundId[0] = id;
+            mBindCount++;
+        }
+        return view;
+    }
+
+    /**
+     * Create a new row view. It is bound right after.
+     */
+    protected abstract View newView(int position, ViewGroup parent);
+
+    /**
+     * Display the given item in a row view.
+     */
+    protected abstract void bindView(View view, int position, T item);
+
+    private void applyData(T[] data, int[] oldPositions, ListView listView, long diffTime) {
+        final T[] oldData = mData;
+        final long[] oldIds = mIds;
+        final long[] ids = new long[data.length];
+
+        boolean moved = oldPositions == null || data.length != oldData.length;
+        int changedCount = 0;
+        for (int i = 0; i < data.length; i++) {
+            final int oldPosition = (oldPositions == null) ? ArrayDiff.INSERTED : oldPositions[i];
+            if (oldPosition == ArrayDiff.INSERTED) {
+                ids[i] = mNextId++;
+                changedCount++;
+            } else {
+                ids[i] = oldIds[oldPosition];
+                moved |= oldPosition != i;
+            }
+        }
+
+        // Anchor: the first visible item that still exists
+        int anchorPosition = -1;
+        int anchorTop = 0;
+        if (listView != null && moved && oldPositions != null && listView.getChildCount() > 0) {
+            final int headerCount = listView.getHeaderViewsCount();
+            final int firstPosition = listView.getFirstVisiblePosition() - headerCount;
+            final int lastPosition = listView.getLastVisiblePosition() - headerCount;
+            int anchorOldPosition = Integer.MAX_VALUE;
+            for (int i = 0; i < oldPositions.length; i++) {
+                final int oldPosition = oldPositions[i];
+                if (oldPosition >= firstPosition && oldPosition <= lastPosition && oldPosition < anchorOldPosition) {
+                    anchorOldPosition = oldPosition;
+                    anchorPosition = i + headerCount;
+                }
+            }
+            if (anchorPosition >= 0) {
+                anchorTop = listView.getChildAt(anchorOldPosition - firstPosition).getTop();
+            }
+        }
+
+        mData = data;
+        mIds = ids;
+
+        if (moved || listView == null) {
+            notifyDataSetChanged();
+            if (anchorPosition >= 0) {
+                listView.setSelectionFromTop(anchorPosition, anchorTop);
+            }
+        } else if (changedCount > 0) {
+            // Same positions: only the replaced items have to be rebound.
+            // getView() leaves the other rows untouched.
+            final int headerCount = listView.getHeaderViewsCount();
+            final int firstPosition = listView.getFirstVisiblePosition();
+            final int childCount = listView.getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                final int position = firstPosition + i - headerCount;
+                if (position >= 0 && position < data.length) {
+                    getView(position, listView.getChildAt(i), listView);
+                }
+            }
+        }
+
+        onDataChanged(diffTime, changedCount);
+    }
+
+    /**
+     * Diffs the data in the background and applies it on the UI thread.
+     * 
+     * @author Cyril Mottier
+     */
+    private class DiffTask extends AsyncTask<Void, Void, int[]> {
+
+        private final T[] mOldData;
+        private final T[] mNewData;
+        private final ListView mListView;
+        private long mDiffTime;
+
+        public DiffTask(T[] oldData, T[] newData, ListView listView) {
+            mOldData = oldData;
+            mNewData = newData;
+            mListView = listView;
+        }
+
+        @Override
+        protected int[] doInBackground(Void... params) {
+            // A small diff takes well under a millisecond
+            final long start = System.nanoTime();
+            final int[] oldPositions = ArrayDiff.diff(mOldData, mNewData, DEFAULT_MAX_EDITS);
+            mDiffTime = System.nanoTime() - start;
+            return oldPositions;
+        }
+
+        @Override
+        protected void onPostExecute(int[] oldPositions) {
+            if (mDiffTask != this) {
+                return;
+            }
+            mDiffTask = null;
+            applyData(mNewData, oldPositions, mListView, mDiffTime);
+        }
+    }
+}
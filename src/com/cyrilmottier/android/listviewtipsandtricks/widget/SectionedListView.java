@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cyrilmottier.android.listviewtipsandtricks.widget;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetricsInt;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.View;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+import android.widget.SectionIndexer;
+
+/**
+ * A {@link ListView} drawing the section headers of its {@link SectionIndexer}
+ * adapter by itself. Headers are drawn in a gutter on the left of the rows:
+ * the header of a section is drawn next to the first row of that section and
+ * the header of the current section is pinned at the top of the list until
+ * the next header pushes it away.
+ * <p>
+ * As a result, rows don't have to contain a separator: they all have the same
+ * structure and height. Rows only have to leave room for the gutter (see
+ * {@link #getGutterWidth()}).
+ * 
+ * @author Cyril Mottier
+ */
+public class SectionedListView extends ListView {
+
+    private static final String LOG_TAG = "SectionedListView";
+
+    /**
+     * Set to true to log the time spent in measure/layout passes.
+     */
+    private static final boolean DEBUG = false;
+
+    private static final int GUTTER_WIDTH = 48;
+    private static final int HEADER_TEXT_SIZE = 22;
+    private static final int HEADER_PADDING = 8;
+
+    private final Paint mHeaderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final FontMetricsInt mFontMetrics = new FontMetricsInt();
+
+    private SectionIndexer mSectionIndexer;
+    private boolean mSectionHeadersEnabled = true;
+    private int mGutterWidth;
+    private int mHeaderPadding;
+    private int mHeaderHeight;
+
+    private long mLayoutTime;
+    private int mLayoutCount;
+
+    public SectionedListView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public SectionedListView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public SectionedListView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init(context);
+    }
+
+    private void init(Context context) {
+        final float density = context.getResources().getDisplayMetrics().density;
+        mGutterWidth = (int) (density * GUTTER_WIDTH + 0.5f);
+        mHeaderPadding = (int) (density * HEADER_PADDING + 0.5f);
+
+        mHeaderPaint.setColor(Color.WHITE);
+        mHeaderPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        mHeaderPaint.setTextAlign(Paint.Align.CENTER);
+        setHeaderTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, HEADER_TEXT_SIZE, context.getResources().getDisplayMetrics()));
+    }
+
+    /**
+     * Returns the width of the gutter in which headers are drawn. Rows should
+     * have at least that amount of left padding.
+     */
+    public int getGutterWidth() {
+        return mGutterWidth;
+    }
+
+    /**
+     * Enable or disable the drawing of section headers. When disabled, this
+     * {@link ListView} behaves like a regular {@link ListView}.
+     */
+    public void setSectionHeadersEnabled(boolean enabled) {
+        if (mSectionHeadersEnabled != enabled) {
+            mSectionHeadersEnabled = enabled;
+            invalidate();
+        }
+    }
+
+    public void setHeaderTextColor(int color) {
+        mHeaderPaint.setColor(color);
+        invalidate();
+    }
+
+    public void setHeaderTextSize(float size) {
+        mHeaderPaint.setTextSize(size);
+        mHeaderPaint.getFontMetricsInt(mFontMetrics);
+        mHeaderHeight = mFontMetrics.descent - mFontMetrics.ascent + 2 * mHeaderPadding;
+        invalidate();
+    }
+
+    @Override
+    public void setAdapter(ListAdapter adapter) {
+        super.setAdapter(adapter);
+        mSectionIndexer = (adapter instanceof SectionIndexer) ? (SectionIndexer) adapter : null;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (DEBUG) {
+            final long start = System.nanoTime();
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            logLayoutTime(System.nanoTime() - start);
+        } else {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        if (DEBUG) {
+            final long start = System.nanoTime();
+            super.onLayout(changed, l, t, r, b);
+            logLayoutTime(System.nanoTime() - start);
+        } else {
+            super.onLayout(changed, l, t, r, b);
+        }
+    }
+
+    private void logLayoutTime(long time) {
+        mLayoutTime += time;
+        if (++mLayoutCount % 100 == 0) {
+            Log.d(LOG_TAG, "Average measure/layout pass: " + (mLayoutTime / mLayoutCount / 1000) + " us");
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+
+        final SectionIndexer indexer = mSectionIndexer;
+        final int childCount = getChildCount();
+        if (!mSectionHeadersEnabled || indexer == null || childCount == 0) {
+            return;
+        }
+
+        final Object[] sections = indexer.getSections();
+        if (sections == null || sections.length == 0) {
+            return;
+        }
+
+        final int firstPosition = getFirstVisiblePosition();
+        final int itemCount = getAdapter().getCount();
+
+        for (int i = 0; i < childCount; i++) {
+            final int position = firstPosition + i;
+            if (position >= itemCount) {
+                // Footer views
+                break;
+            }
+
+            final View child = getChildAt(i);
+            final int section = indexer.getSectionForPosition(position);
+
+            if (i == 0) {
+                // The header of the current section is pinned at the top of
+                // the list. When the next section is about to reach the top,
+                // its header pushes the pinned one away.
+                int top = Math.max(child.getTop(), 0);
+                if (section + 1 < sections.length) {
+                    final int nextChild = indexer.getPositionForSection(section + 1) - firstPosition;
+                    if (nextChild > 0 && nextChild < childCount) {
+                        top = Math.min(top, getChildAt(nextChild).getTop() - mHeaderHeight);
+                    }
+                }
+                drawHeader(canvas, sections[section], top);
+            } else if (indexer.getPositionForSection(section) == position) {
+                drawHeader(canvas, sections[section], child.getTop());
+            }
+        }
+    }
+
+    private void drawHeader(Canvas canvas, Object section, int top) {
+        final String label = String.valueOf(section);
+        final int baseline = top + mHeaderPadding - mFontMetrics.ascent;
+        canvas.drawText(label, 0, label.length(), mGutterWidth / 2f, baseline, mHeaderPaint);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Cyril Mottier (http://www.cyrilmottier.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.cyrilmottier.android.listviewtipsandtricks.data.Cheeses;
+import com.cyrilmottier.android.listviewtipsandtricks.util.StringPoolWriter;
+
+/**
+ * Generates the string pool assets. Run it from the project directory
+ * whenever the data changes:
+ * 
+ * <pre>
+ * javac -d bin/tools src/com/cyrilmottier/android/listviewtipsandtricks/data/Cheeses.java \
+ *     src/com/cyrilmottier/android/listviewtipsandtricks/util/StringPoolWriter.java tools/StringPoolGenerator.java
+ * java -cp bin/tools StringPoolGenerator assets
+ * </pre>
+ * 
+ * @author Cyril Mottier
+ */
+public class StringPoolGenerator {
+
+    /**
+     * aapt stores ".jet" files uncompressed: the pool can be memory-mapped
+     */
+    public static final String CHEESES_POOL = "cheeses.pool.jet";
+
+    public static void main(String[] args) throws IOException {
+        final String directory = (args.length > 0) ? args[0] : "assets";
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(directory + "/" + CHEESES_POOL));
+        try {
+            StringPoolWriter.write(Cheeses.CHEESES, out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + Cheeses.CHEESES.length + " strings to " + directory + "/" + CHEESES_POOL);
+    }
+}